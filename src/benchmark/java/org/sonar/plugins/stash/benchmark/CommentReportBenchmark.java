@@ -0,0 +1,78 @@
+package org.sonar.plugins.stash.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.plugins.stash.exceptions.StashReportExtractionException;
+import org.sonar.plugins.stash.issue.MarkdownPrinter;
+import org.sonar.plugins.stash.issue.SonarQubeIssue;
+import org.sonar.plugins.stash.issue.SonarQubeIssuesReport;
+import org.sonar.plugins.stash.issue.StashCommentReport;
+import org.sonar.plugins.stash.issue.StashDiffReport;
+import org.sonar.plugins.stash.issue.collector.StashCollector;
+import org.sonar.plugins.stash.issue.collector.SyntheticPullRequest;
+
+/**
+ * Extraction of the comments already pushed on Stash, and check of each issue against them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommentReportBenchmark {
+
+  private static final int DIFF_LINES = 100000;
+
+  @Param({"100", "1000", "10000", "50000"})
+  private int issues;
+
+  private SonarQubeIssuesReport issueReport;
+  private String[] issueMessages;
+  private String commentsJson;
+  private StashCommentReport commentReport;
+  private StashDiffReport diffReport;
+
+  @Setup
+  public void setUp() throws StashReportExtractionException {
+    issueReport = SyntheticPullRequest.issueReport(issues, DIFF_LINES);
+    issueMessages = new String[issues];
+    for (int i = 0; i < issues; i++) {
+      issueMessages[i] = MarkdownPrinter.printIssueMarkdown(issueReport.getIssues().get(i), SyntheticPullRequest.SONARQUBE_URL);
+    }
+
+    commentsJson = SyntheticPullRequest.commentsJson(issueReport);
+    commentReport = SyntheticPullRequest.commentReport(issueReport);
+    diffReport = StashCollector.extractDiffs(SyntheticPullRequest.diffJson(DIFF_LINES));
+  }
+
+  @Benchmark
+  public StashCommentReport extractComments() throws StashReportExtractionException {
+    return StashCollector.extractComments(commentsJson);
+  }
+
+  @Benchmark
+  public void contains(Blackhole blackhole) {
+    for (int i = 0; i < issues; i++) {
+      SonarQubeIssue issue = issueReport.getIssues().get(i);
+      blackhole.consume(commentReport.contains(issueMessages[i], issue.getPath(), issue.getLine()));
+    }
+  }
+
+  @Benchmark
+  public StashCommentReport applyDiffReport() {
+    return commentReport.applyDiffReport(diffReport);
+  }
+}
@@ -0,0 +1,52 @@
+package org.sonar.plugins.stash.benchmark;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.plugins.stash.exceptions.StashReportExtractionException;
+import org.sonar.plugins.stash.issue.StashDiffReport;
+import org.sonar.plugins.stash.issue.collector.StashCollector;
+import org.sonar.plugins.stash.issue.collector.SyntheticPullRequest;
+
+/**
+ * Extraction of the pull-request diff view returned by Stash.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiffExtractionBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  private int diffLines;
+
+  private String diffJson;
+
+  @Setup
+  public void setUp() {
+    diffJson = SyntheticPullRequest.diffJson(diffLines);
+  }
+
+  @Benchmark
+  public StashDiffReport extractDiffs() throws StashReportExtractionException {
+    return StashCollector.extractDiffs(diffJson);
+  }
+
+  @Benchmark
+  public StashDiffReport extractDiffsFromReader() throws StashReportExtractionException {
+    return StashCollector.extractDiffs(new StringReader(diffJson));
+  }
+}
@@ -0,0 +1,57 @@
+package org.sonar.plugins.stash.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sonar.plugins.stash.exceptions.StashReportExtractionException;
+import org.sonar.plugins.stash.issue.SonarQubeIssue;
+import org.sonar.plugins.stash.issue.SonarQubeIssuesReport;
+import org.sonar.plugins.stash.issue.StashDiffReport;
+import org.sonar.plugins.stash.issue.collector.StashCollector;
+import org.sonar.plugins.stash.issue.collector.SyntheticPullRequest;
+
+/**
+ * Diff view lookups done for each issue before posting its comment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiffReportBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  private int diffLines;
+
+  @Param({"100", "1000", "50000"})
+  private int issues;
+
+  private StashDiffReport diffReport;
+  private SonarQubeIssuesReport issueReport;
+
+  @Setup
+  public void setUp() throws StashReportExtractionException {
+    diffReport = StashCollector.extractDiffs(SyntheticPullRequest.diffJson(diffLines));
+    issueReport = SyntheticPullRequest.issueReport(issues, diffLines);
+  }
+
+  @Benchmark
+  public void getTypeAndLine(Blackhole blackhole) {
+    for (SonarQubeIssue issue : issueReport.getIssues()) {
+      blackhole.consume(diffReport.getType(issue.getPath(), issue.getLine()));
+      blackhole.consume(diffReport.getLine(issue.getPath(), issue.getLine()));
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package org.sonar.plugins.stash.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sonar.plugins.stash.issue.MarkdownPrinter;
+import org.sonar.plugins.stash.issue.SonarQubeIssuesReport;
+import org.sonar.plugins.stash.issue.collector.SyntheticPullRequest;
+
+/**
+ * Printing of the analysis overview posted on the pull-request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MarkdownPrinterBenchmark {
+
+  private static final int DIFF_LINES = 100000;
+  private static final int ISSUE_THRESHOLD = 100;
+
+  @Param({"100", "1000", "10000", "50000"})
+  private int issues;
+
+  private SonarQubeIssuesReport issueReport;
+
+  @Setup
+  public void setUp() {
+    issueReport = SyntheticPullRequest.issueReport(issues, DIFF_LINES);
+  }
+
+  @Benchmark
+  public String printReportMarkdown() {
+    return MarkdownPrinter.printReportMarkdown(issueReport, SyntheticPullRequest.SONARQUBE_URL, ISSUE_THRESHOLD);
+  }
+}
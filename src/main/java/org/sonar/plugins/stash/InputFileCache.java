@@ -1,29 +1,77 @@
 package org.sonar.plugins.stash;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import javax.annotation.CheckForNull;
 import org.sonar.api.BatchComponent;
 import org.sonar.api.batch.InstantiationStrategy;
-import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.scan.filesystem.PathResolver;
 
+/**
+ * Location of the files of the analysis, by component key.
+ *
+ * Only the base directory of each module is registered: file component keys are made of the module key and of
+ * the path relative to the module, so the location of a file is only resolved for the files which carry issues.
+ */
 @InstantiationStrategy(InstantiationStrategy.PER_BATCH)
 public class InputFileCache implements BatchComponent {
 
-  private final Map<String, InputFile> inputFileByKey = new HashMap<>();
-  
-  public void putInputFile(String componentKey, InputFile inputFile) {
-    inputFileByKey.put(componentKey, inputFile);
+  private static final char KEY_SEPARATOR = ':';
+
+  private final Map<String, File> moduleBaseDirByKey = new HashMap<>();
+
+  public void putModule(String moduleKey, File moduleBaseDir) {
+    moduleBaseDirByKey.put(moduleKey, moduleBaseDir);
   }
 
+  /**
+   * Path of the file relative to the project base directory, null if the component is not a file of the analysis.
+   */
   @CheckForNull
-  public InputFile getInputFile(String componentKey) {
-    return inputFileByKey.get(componentKey);
+  public String getRelativePath(String componentKey, File projectBaseDir) {
+    String moduleKey = getModuleKey(componentKey);
+    if (moduleKey == null) {
+      return null;
+    }
+
+    File moduleBaseDir = moduleBaseDirByKey.get(moduleKey);
+    String relativePath = componentKey.substring(moduleKey.length() + 1);
+    if (! new File(moduleBaseDir, relativePath).isFile()) {
+      return null;
+    }
+
+    // single module project: the path relative to the module is already the right one
+    if (moduleBaseDir.equals(projectBaseDir)) {
+      return relativePath;
+    }
+
+    return new PathResolver().relativePath(projectBaseDir, new File(moduleBaseDir, relativePath));
+  }
+
+  /**
+   * Nested modules share the key prefix of their parent: the longest registered key wins.
+   */
+  @CheckForNull
+  private String getModuleKey(String componentKey) {
+    String result = null;
+    for (String moduleKey : moduleBaseDirByKey.keySet()) {
+      if (componentKey.length() > moduleKey.length() + 1
+          && componentKey.charAt(moduleKey.length()) == KEY_SEPARATOR
+          && componentKey.startsWith(moduleKey)
+          && (result == null || moduleKey.length() > result.length())) {
+        result = moduleKey;
+      }
+    }
+    return result;
+  }
+
+  public int size() {
+    return moduleBaseDirByKey.size();
   }
 
   @Override
   public String toString() {
     return "Stash Plugin InputFile Cache";
   }
-
 }
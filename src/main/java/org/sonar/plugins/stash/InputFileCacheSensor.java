@@ -2,9 +2,7 @@ package org.sonar.plugins.stash;
 
 import org.sonar.api.batch.Sensor;
 import org.sonar.api.batch.SensorContext;
-import org.sonar.api.batch.fs.FilePredicate;
 import org.sonar.api.batch.fs.FileSystem;
-import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.resources.Project;
 
 public class InputFileCacheSensor implements Sensor {
@@ -22,9 +20,8 @@ public class InputFileCacheSensor implements Sensor {
 
   @Override
   public void analyse(Project module, SensorContext context) {
-    for (InputFile inputFile : fileSystem.inputFiles(getAllPredicateFiles())) {
-      inputFileCache.putInputFile(context.getResource(inputFile).getEffectiveKey(), inputFile);
-    }
+    // files are not walked: their location is derived from their component key when they carry an issue
+    inputFileCache.putModule(module.getEffectiveKey(), fileSystem.baseDir());
   }
 
   @Override
@@ -37,8 +34,4 @@ public class InputFileCacheSensor implements Sensor {
     return stashPluginConfiguration.hasToNotifyStash();
   }
 
-  private FilePredicate getAllPredicateFiles(){
-    return fileSystem.predicates().all();
-  }
-  
 }
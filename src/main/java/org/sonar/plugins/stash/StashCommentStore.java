@@ -0,0 +1,183 @@
+package org.sonar.plugins.stash;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.sonar.plugins.stash.issue.SonarQubeIssue;
+import org.sonar.plugins.stash.issue.StashComment;
+import org.sonar.plugins.stash.issue.StashCommentReport;
+
+/**
+ * Comments posted by SonarQube on a pull-request in incremental mode, kept on disk from one analysis to the next.
+ *
+ * Each record links a SonarQube issue key to its Stash comment (id, version) and to the comment anchor (path, line).
+ * Issues are matched by message and anchor rather than by key, as keys of new issues are not stable between two analyses.
+ */
+public class StashCommentStore {
+
+  private static final String FILE_PREFIX = "stash-comments-";
+  private static final String FILE_EXTENSION = ".json";
+
+  private final File file;
+  private boolean loaded;
+
+  // comments of the previous analysis, and key of their issue by comment id
+  private final StashCommentReport previousComments;
+  private final Map<Long, String> previousIssueKeys;
+
+  // comments of the current analysis, by id
+  private final Map<Long, StashComment> comments;
+  private final Map<Long, String> issueKeys;
+
+  public StashCommentStore(File directory, String project, String repository, String pullRequestId) {
+    this.file = new File(directory, FILE_PREFIX + toFileName(project) + "-" + toFileName(repository) + "-" + toFileName(pullRequestId) + FILE_EXTENSION);
+    this.previousComments = new StashCommentReport();
+    this.previousIssueKeys = new HashMap<>();
+    this.comments = new LinkedHashMap<>();
+    this.issueKeys = new HashMap<>();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Read the comments stored by the previous analysis of the pull-request.
+   * @return false if the pull-request has not been analyzed yet in incremental mode
+   */
+  public boolean load() throws IOException {
+    if (! file.isFile()) {
+      return false;
+    }
+
+    try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+      JSONObject jsonStore = (JSONObject) new JSONParser().parse(reader);
+
+      for (Object obj : (JSONArray) jsonStore.get("comments")) {
+        JSONObject jsonComment = (JSONObject) obj;
+        long id = (long) jsonComment.get("id");
+        long version = (long) jsonComment.get("version");
+        String path = (String) jsonComment.get("path");
+        long line = (long) jsonComment.get("line");
+        String message = (String) jsonComment.get("text");
+
+        previousComments.add(new StashComment(id, message, path, line, null, version));
+        previousIssueKeys.put(id, (String) jsonComment.get("issue"));
+      }
+    } catch (ParseException | ClassCastException | NullPointerException e) {
+      throw new IOException("Unable to read comment store " + file, e);
+    }
+
+    loaded = true;
+    return true;
+  }
+
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Comment posted by the previous analysis for the given message at the given place, null if there is none.
+   */
+  public StashComment getPreviousComment(String message, String path, long line) {
+    return previousComments.getComment(message, path, line);
+  }
+
+  /**
+   * Record the comment of an issue for the next analysis, anchored to the issue line.
+   */
+  public synchronized void add(SonarQubeIssue issue, String message, StashComment comment) {
+    comments.put(comment.getId(), new StashComment(comment.getId(), message, issue.getPath(), issue.getLine(), null, comment.getVersion()));
+    issueKeys.put(comment.getId(), issue.getKey());
+  }
+
+  /**
+   * Keep a comment of the previous analysis for the next one, such as a comment which could not be deleted.
+   */
+  public synchronized void keep(StashComment previousComment) {
+    comments.put(previousComment.getId(), previousComment);
+    issueKeys.put(previousComment.getId(), previousIssueKeys.get(previousComment.getId()));
+  }
+
+  /**
+   * Comments of the previous analysis which have not been recorded again: their issues have disappeared.
+   */
+  public synchronized List<StashComment> getStaleComments() {
+    List<StashComment> result = new ArrayList<>();
+    for (StashComment comment : previousComments.getComments()) {
+      if (! comments.containsKey(comment.getId())) {
+        result.add(comment);
+      }
+    }
+
+    return result;
+  }
+
+  public synchronized int size() {
+    return comments.size();
+  }
+
+  /**
+   * Write the comments of the current analysis, replacing the stored ones at once.
+   */
+  public synchronized void save() throws IOException {
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (! directory.isDirectory() && ! directory.mkdirs()) {
+      throw new IOException("Unable to create directory " + directory);
+    }
+
+    JSONArray jsonComments = new JSONArray();
+    for (StashComment comment : comments.values()) {
+      JSONObject jsonComment = new JSONObject();
+      jsonComment.put("issue", issueKeys.get(comment.getId()));
+      jsonComment.put("id", comment.getId());
+      jsonComment.put("version", comment.getVersion());
+      jsonComment.put("path", comment.getPath());
+      jsonComment.put("line", comment.getLine());
+      jsonComment.put("text", comment.getMessage());
+      jsonComments.add(jsonComment);
+    }
+
+    JSONObject jsonStore = new JSONObject();
+    jsonStore.put("comments", jsonComments);
+
+    File tempFile = File.createTempFile(FILE_PREFIX, FILE_EXTENSION, directory);
+    try {
+      try (Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8)) {
+        jsonStore.writeJSONString(writer);
+      }
+      Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile.toPath());
+    }
+  }
+
+  /**
+   * Forget the stored comments, such as when they have been reset on Stash.
+   */
+  public void delete() throws IOException {
+    Files.deleteIfExists(file.toPath());
+  }
+
+  private static String toFileName(String value) {
+    return value.replaceAll("[^A-Za-z0-9._]", "_");
+  }
+}
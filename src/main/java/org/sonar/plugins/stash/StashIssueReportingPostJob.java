@@ -9,9 +9,11 @@ import org.sonar.api.resources.Project;
 import org.sonar.plugins.stash.client.StashClient;
 import org.sonar.plugins.stash.client.StashCredentials;
 import org.sonar.plugins.stash.exceptions.StashConfigurationException;
+import org.sonar.plugins.stash.issue.IssueMarkdownCache;
 import org.sonar.plugins.stash.issue.SonarQubeIssuesReport;
 import org.sonar.plugins.stash.issue.StashDiffReport;
 import org.sonar.plugins.stash.issue.StashUser;
+import org.sonar.plugins.stash.issue.StringDictionary;
 
 public class StashIssueReportingPostJob implements PostJob {
 
@@ -36,64 +38,24 @@ public class StashIssueReportingPostJob implements PostJob {
       boolean notifyStash = config.hasToNotifyStash();
       if (notifyStash) {
         
-        SonarQubeIssuesReport issueReport = stashRequestFacade.extractIssueReport(projectIssues, inputFileCache);
+        // paths and messages of SonarQube issues and Stash comments are held once for the whole post job
+        StringDictionary strings = new StringDictionary();
           
         int issueThreshold = stashRequestFacade.getIssueThreshold();
-        String sonarQubeURL = config.getSonarQubeURL();
+        
+        // markdown of each issue is printed once, for its comment and for the analysis overview
+        IssueMarkdownCache issueMarkdowns = new IssueMarkdownCache(config.getSonarQubeURL());
           
         // Stash MANDATORY options
-        String stashURL = stashRequestFacade.getStashURL();
         String stashProject = stashRequestFacade.getStashProject();
         String repository = stashRequestFacade.getStashRepository();
         String stashPullRequestId = stashRequestFacade.getStashPullRequestId();
           
-        int stashTimeout = config.getStashTimeout();
-        boolean acceptAnyCertificate = config.acceptAnyCertificate();
-          
         StashCredentials stashCredentials = stashRequestFacade.getCredentials();
-        StashClient stashClient = new StashClient(stashURL, stashCredentials, stashTimeout, acceptAnyCertificate);
         
-        StashUser stashUser = stashRequestFacade.getSonarQubeReviewer(stashCredentials.getLogin(), stashClient);
-        if (stashUser == null) {
-          LOGGER.error("Process stopped: no SonarQube reviewer identified to publish to Stash the SQ analysis"); 
-        }
-        else {
-          
-          // Get all changes exposed from Stash differential view of the pull-request
-          StashDiffReport diffReport = stashRequestFacade.getPullRequestDiffReport(stashProject, repository, stashPullRequestId, stashClient);
-          if (diffReport == null) {
-            LOGGER.error("Process stopped: No Stash differential report available to process the SQ analysis"); 
-          } else {
-          
-            // if requested, reset all comments linked to the pull-request
-            if (config.resetComments()) {
-              stashRequestFacade.resetComments(stashProject, repository, stashPullRequestId, diffReport, stashUser, stashClient);
-            }
-            
-            boolean canApprovePullrequest = config.canApprovePullRequest();
-            if (canApprovePullrequest) {
-              stashRequestFacade.addPullRequestReviewer(stashProject, repository, stashPullRequestId, stashCredentials.getLogin(), stashClient);
-            }
-            
-            // if threshold exceeded, do not push issue list to Stash
-            if (issueReport.countIssues() >= issueThreshold) {
-              LOGGER.warn("Too many issues detected ({}/{}): Issues cannot be displayed in Diff view", issueReport.countIssues(), issueThreshold);
-            } else {
-              stashRequestFacade.postCommentPerIssue(stashProject, repository, stashPullRequestId, sonarQubeURL, issueReport, diffReport, stashClient);
-            }
-
-            stashRequestFacade.postAnalysisOverview(stashProject, repository, stashPullRequestId, sonarQubeURL, issueThreshold, issueReport, stashClient);
-           
-            if (canApprovePullrequest) {
-           
-              // if no new issues, plugin approves the pull-request 
-              if (issueReport.countIssues() == 0) {
-                stashRequestFacade.approvePullRequest(stashProject, repository, stashPullRequestId, stashCredentials.getLogin(), stashClient);
-              } else {
-                stashRequestFacade.resetPullRequestApproval(stashProject, repository, stashPullRequestId, stashCredentials.getLogin(), stashClient);
-              }
-            }
-          }
+        // one client, and so one connection pool, for the whole post job
+        try (StashClient stashClient = stashRequestFacade.createStashClient(strings)) {
+          postAnalysis(strings, issueThreshold, issueMarkdowns, stashProject, repository, stashPullRequestId, stashCredentials, stashClient);
         }
       }
     } catch (StashConfigurationException e) {
@@ -101,4 +63,59 @@ public class StashIssueReportingPostJob implements PostJob {
       LOGGER.debug("Exception stack trace", e);
     }
   }
+
+  /**
+   * Publish the SQ analysis on the pull-request through the given Stash client.
+   */
+  private void postAnalysis(StringDictionary strings, int issueThreshold, IssueMarkdownCache issueMarkdowns, String stashProject, String repository,
+      String stashPullRequestId, StashCredentials stashCredentials, StashClient stashClient) {
+    
+    StashUser stashUser = stashRequestFacade.getSonarQubeReviewer(stashCredentials.getLogin(), stashClient);
+    if (stashUser == null) {
+      LOGGER.error("Process stopped: no SonarQube reviewer identified to publish to Stash the SQ analysis"); 
+    }
+    else {
+      
+      // Get all changes exposed from Stash differential view of the pull-request
+      StashDiffReport diffReport = stashRequestFacade.getPullRequestDiffReport(stashProject, repository, stashPullRequestId, stashClient);
+      if (diffReport == null) {
+        LOGGER.error("Process stopped: No Stash differential report available to process the SQ analysis"); 
+      } else {
+        
+        // issues out of the diff view are never commented: they are only counted for the overview
+        SonarQubeIssuesReport issueReport = stashRequestFacade.extractIssueReport(projectIssues, inputFileCache, strings, diffReport);
+      
+        boolean canApprovePullrequest = config.canApprovePullRequest();
+        if (canApprovePullrequest) {
+          stashRequestFacade.addPullRequestReviewer(stashProject, repository, stashPullRequestId, stashCredentials.getLogin(), stashClient);
+        }
+        
+        // if threshold exceeded, do not push issue list to Stash
+        SonarQubeIssuesReport commentedIssueReport = issueReport;
+        if (issueReport.countIssues() >= issueThreshold) {
+          LOGGER.warn("Too many issues detected ({}/{}): Issues cannot be displayed in Diff view", issueReport.countIssues(), issueThreshold);
+          commentedIssueReport = new SonarQubeIssuesReport();
+        }
+        
+        // if requested, reconcile the comments linked to the pull-request with the issues: only stale comments are deleted
+        if (config.resetComments()) {
+          stashRequestFacade.reconcileComments(stashProject, repository, stashPullRequestId, issueMarkdowns, commentedIssueReport, diffReport, stashUser, stashClient);
+        } else if (commentedIssueReport == issueReport) {
+          stashRequestFacade.postCommentPerIssue(stashProject, repository, stashPullRequestId, issueMarkdowns, commentedIssueReport, diffReport, stashClient);
+        }
+
+        stashRequestFacade.postAnalysisOverview(stashProject, repository, stashPullRequestId, issueMarkdowns, issueThreshold, issueReport, stashClient);
+       
+        if (canApprovePullrequest) {
+       
+          // if no new issues, plugin approves the pull-request 
+          if (issueReport.countIssues() == 0) {
+            stashRequestFacade.approvePullRequest(stashProject, repository, stashPullRequestId, stashCredentials.getLogin(), stashClient);
+          } else {
+            stashRequestFacade.resetPullRequestApproval(stashProject, repository, stashPullRequestId, stashCredentials.getLogin(), stashClient);
+          }
+        }
+      }
+    }
+  }
 }
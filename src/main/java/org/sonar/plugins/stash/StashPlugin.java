@@ -20,6 +20,15 @@ public class StashPlugin extends SonarPlugin {
 
   private static final String DEFAULT_STASH_TIMEOUT_VALUE = "10000";
   private static final String DEFAULT_STASH_THRESHOLD_VALUE = "100";
+  private static final String DEFAULT_STASH_MAX_CONNECTIONS_PER_HOST_VALUE = "10";
+  private static final String DEFAULT_STASH_POST_PARALLELISM_VALUE = "1";
+  private static final String DEFAULT_STASH_COMMENT_PAGE_SIZE_VALUE = "100";
+  private static final String DEFAULT_STASH_CACHE_SIZE_VALUE = "100";
+  private static final String DEFAULT_STASH_SCOPE_NEIGHBOURHOOD_VALUE = "0";
+  private static final String DEFAULT_STASH_RATE_LIMIT_VALUE = "0";
+  private static final String DEFAULT_STASH_RETRY_MAX_VALUE = "3";
+  private static final String DEFAULT_STASH_RETRY_BACKOFF_VALUE = "500";
+  private static final String DEFAULT_STASH_RETRY_MAX_BACKOFF_VALUE = "30000";
 
   private static final String CONFIG_PAGE_SUB_CATEGORY_GENERAL = "General";
   
@@ -41,6 +50,19 @@ public class StashPlugin extends SonarPlugin {
   public static final String STASH_ISSUE_THRESHOLD = "sonar.stash.issue.threshold";
   public static final String STASH_TIMEOUT = "sonar.stash.timeout";
   public static final String STASH_CERTIFICATES_ACCEPTANCE = "sonar.stash.certificates.acceptance"; 
+  public static final String STASH_MAX_CONNECTIONS_PER_HOST = "sonar.stash.connections.perhost";
+  public static final String STASH_POST_PARALLELISM = "sonar.stash.post.parallelism";
+  public static final String STASH_COMMENT_PAGE_SIZE = "sonar.stash.comments.pagesize";
+  public static final String STASH_INCREMENTAL_MODE = "sonar.stash." + INCREMENTAL_MODE;
+  public static final String STASH_INCREMENTAL_STATE_DIR = "sonar.stash." + INCREMENTAL_MODE + ".statedir";
+  public static final String STASH_CACHE_DIR = "sonar.stash.cache.dir";
+  public static final String STASH_CACHE_SIZE = "sonar.stash.cache.size";
+  public static final String STASH_PULL_REQUEST_SCOPE = "sonar.stash.scope.pullrequest";
+  public static final String STASH_SCOPE_NEIGHBOURHOOD = "sonar.stash.scope.neighbourhood";
+  public static final String STASH_RATE_LIMIT = "sonar.stash.ratelimit";
+  public static final String STASH_RETRY_MAX = "sonar.stash.retry.max";
+  public static final String STASH_RETRY_BACKOFF = "sonar.stash.retry.backoff";
+  public static final String STASH_RETRY_MAX_BACKOFF = "sonar.stash.retry.maxbackoff";
   public static final String SONARQUBE_URL = "sonar.host.url";
   
   @Override
@@ -75,6 +97,92 @@ public class StashPlugin extends SonarPlugin {
             .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
             .onQualifiers(Qualifiers.PROJECT)
             .defaultValue(DEFAULT_STASH_TIMEOUT_VALUE).build(),
+        PropertyDefinition.builder(STASH_MAX_CONNECTIONS_PER_HOST)
+            .name("Stash max connections")
+            .description("Maximum number of connections kept alive with Stash during the analysis")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .defaultValue(DEFAULT_STASH_MAX_CONNECTIONS_PER_HOST_VALUE).build(),
+        PropertyDefinition.builder(STASH_POST_PARALLELISM)
+            .name("Stash comment parallelism")
+            .description("Maximum number of parallel requests to Stash when fetching and posting issue comments (1 to send them one by one)")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .defaultValue(DEFAULT_STASH_POST_PARALLELISM_VALUE).build(),
+        PropertyDefinition.builder(STASH_COMMENT_PAGE_SIZE)
+            .name("Stash comment page size")
+            .description("Number of comments requested per page when fetching the comments of a pull-request file")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .defaultValue(DEFAULT_STASH_COMMENT_PAGE_SIZE_VALUE).build(),
+        PropertyDefinition.builder(STASH_RATE_LIMIT)
+            .name("Stash rate limit")
+            .description("Maximum number of requests per second sent to Stash by the analysis (0 for no limit)")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .defaultValue(DEFAULT_STASH_RATE_LIMIT_VALUE).build(),
+        PropertyDefinition.builder(STASH_RETRY_MAX)
+            .name("Stash request retries")
+            .description("Maximum number of retries of a request rejected by Stash as throttled (429) or unavailable (503), 0 to never retry")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .defaultValue(DEFAULT_STASH_RETRY_MAX_VALUE).build(),
+        PropertyDefinition.builder(STASH_RETRY_BACKOFF)
+            .name("Stash retry backoff")
+            .description("Delay before the first retry of a rejected request (in ms), doubled on each retry, unless Stash sends a Retry-After header")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .defaultValue(DEFAULT_STASH_RETRY_BACKOFF_VALUE).build(),
+        PropertyDefinition.builder(STASH_RETRY_MAX_BACKOFF)
+            .name("Stash retry max backoff")
+            .description("Maximum delay before a retry (in ms): requests Stash asks to delay longer are not retried")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .defaultValue(DEFAULT_STASH_RETRY_MAX_BACKOFF_VALUE).build(),
+        PropertyDefinition.builder(STASH_INCREMENTAL_MODE)
+            .name("Stash incremental mode")
+            .description("Keep track of the posted comments between two analyses of the same pull-request, to post only new issues and delete only comments of fixed issues")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .type(PropertyType.BOOLEAN)
+            .defaultValue("false").build(),
+        PropertyDefinition.builder(STASH_INCREMENTAL_STATE_DIR)
+            .name("Stash incremental state directory")
+            .description("Local directory where the posted comments are kept in incremental mode (SonarQube working directory by default)")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT).build(),
+        PropertyDefinition.builder(STASH_CACHE_DIR)
+            .name("Stash cache directory")
+            .description("Local directory caching the pull-request, user and diff responses of Stash, revalidated by conditional requests (no cache by default)")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT).build(),
+        PropertyDefinition.builder(STASH_CACHE_SIZE)
+            .name("Stash cache size")
+            .description("Maximum size of the Stash response cache (in MB), least recently used responses being evicted first")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .defaultValue(DEFAULT_STASH_CACHE_SIZE_VALUE).build(),
+        PropertyDefinition.builder(STASH_PULL_REQUEST_SCOPE)
+            .name("Stash pull-request scope")
+            .description("Restrict the analysis to the files added or modified by the pull-request (for preview analyses only)")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .type(PropertyType.BOOLEAN)
+            .defaultValue("false").build(),
+        PropertyDefinition.builder(STASH_SCOPE_NEIGHBOURHOOD)
+            .name("Stash pull-request scope neighbourhood")
+            .description("Number of parent directories of the changed files whose whole content is analysed too in pull-request scope (0 for the changed files only)")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .defaultValue(DEFAULT_STASH_SCOPE_NEIGHBOURHOOD_VALUE).build(),
+        PropertyDefinition.builder(STASH_RESET_COMMENTS)
+            .name("Stash comments reconciliation")
+            .description("Reconcile the comments of the SonarQube user with the issues of the analysis: comments of fixed issues are deleted, "
+                + "comments of new issues are created and unchanged comments are kept")
+            .subCategory(CONFIG_PAGE_SUB_CATEGORY_GENERAL)
+            .onQualifiers(Qualifiers.PROJECT)
+            .type(PropertyType.BOOLEAN)
+            .defaultValue("false").build(),
         PropertyDefinition.builder(STASH_REVIEWER_APPROVAL)
             .name("Stash reviewer approval")
             .description("Does SonarQube approve the pull-request if there is no new issues?")
@@ -53,6 +53,58 @@ public class StashPluginConfiguration implements BatchComponent {
     return settings.getInt(StashPlugin.STASH_TIMEOUT);
   }
   
+  public int getStashMaxConnectionsPerHost() {
+    return settings.getInt(StashPlugin.STASH_MAX_CONNECTIONS_PER_HOST);
+  }
+  
+  public int getPostParallelism() {
+    return settings.getInt(StashPlugin.STASH_POST_PARALLELISM);
+  }
+  
+  public int getCommentPageSize() {
+    return settings.getInt(StashPlugin.STASH_COMMENT_PAGE_SIZE);
+  }
+  
+  public int getRateLimit() {
+    return settings.getInt(StashPlugin.STASH_RATE_LIMIT);
+  }
+  
+  public int getMaxRetries() {
+    return settings.getInt(StashPlugin.STASH_RETRY_MAX);
+  }
+  
+  public long getRetryBackoff() {
+    return settings.getLong(StashPlugin.STASH_RETRY_BACKOFF);
+  }
+  
+  public long getRetryMaxBackoff() {
+    return settings.getLong(StashPlugin.STASH_RETRY_MAX_BACKOFF);
+  }
+  
+  public boolean isIncrementalMode() {
+    return settings.getBoolean(StashPlugin.STASH_INCREMENTAL_MODE);
+  }
+  
+  public String getIncrementalStateDir() {
+    return settings.getString(StashPlugin.STASH_INCREMENTAL_STATE_DIR);
+  }
+  
+  public String getResponseCacheDir() {
+    return settings.getString(StashPlugin.STASH_CACHE_DIR);
+  }
+  
+  public int getResponseCacheSize() {
+    return settings.getInt(StashPlugin.STASH_CACHE_SIZE);
+  }
+  
+  public boolean isPullRequestScope() {
+    return settings.getBoolean(StashPlugin.STASH_PULL_REQUEST_SCOPE);
+  }
+  
+  public int getScopeNeighbourhood() {
+    return settings.getInt(StashPlugin.STASH_SCOPE_NEIGHBOURHOOD);
+  }
+  
   public boolean canApprovePullRequest() {
     return settings.getBoolean(StashPlugin.STASH_REVIEWER_APPROVAL);
   }
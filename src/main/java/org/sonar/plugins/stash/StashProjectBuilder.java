@@ -1,21 +1,225 @@
 package org.sonar.plugins.stash;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.bootstrap.ProjectBuilder;
+import org.sonar.api.batch.bootstrap.ProjectDefinition;
+import org.sonar.api.batch.bootstrap.ProjectReactor;
+import org.sonar.api.scan.filesystem.PathResolver;
+import org.sonar.api.utils.WildcardPattern;
+import org.sonar.plugins.stash.client.StashClient;
+import org.sonar.plugins.stash.exceptions.StashConfigurationException;
+import org.sonar.plugins.stash.issue.StringDictionary;
 
 public class StashProjectBuilder extends ProjectBuilder {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(StashProjectBuilder.class);
+
+  private static final String ALL_FILES_PATTERN = "**/*";
+  private static final String ALL_DIRECTORIES_PATTERN = "**";
+
+  private final StashPluginConfiguration config;
   private final StashRequestFacade stashRequestFacade;
 
-  public StashProjectBuilder(StashRequestFacade stashRequestFacade) {
+  public StashProjectBuilder(StashPluginConfiguration stashPluginConfiguration, StashRequestFacade stashRequestFacade) {
+    this.config = stashPluginConfiguration;
     this.stashRequestFacade = stashRequestFacade;
   }
   
   @Override
   public void build(Context context) {
     File projectBaseDir = context.projectReactor().getRoot().getBaseDir();
-    stashRequestFacade.initialize(projectBaseDir);
+    File workingDir = context.projectReactor().getRoot().getWorkDir();
+    stashRequestFacade.initialize(projectBaseDir, workingDir);
+
+    if (config.hasToNotifyStash() && config.isPullRequestScope()) {
+      restrictToPullRequest(context.projectReactor());
+    }
+  }
+
+  /**
+   * Narrow the analysis to the files changed by the pull-request: issues of the other files are never posted to Stash.
+   * Whole project is analysed if Stash cannot provide the changed files.
+   */
+  private void restrictToPullRequest(ProjectReactor reactor) {
+    try {
+      String stashProject = stashRequestFacade.getStashProject();
+      String repository = stashRequestFacade.getStashRepository();
+      String stashPullRequestId = stashRequestFacade.getStashPullRequestId();
+
+      List<String> changedPaths;
+      try (StashClient stashClient = stashRequestFacade.createStashClient(new StringDictionary())) {
+        changedPaths = stashRequestFacade.getPullRequestChanges(stashProject, repository, stashPullRequestId, stashClient);
+      }
+
+      if (changedPaths == null) {
+        LOGGER.warn("Files changed by pull-request unknown: the whole project is analysed");
+      } else {
+        restrictToChanges(reactor, changedPaths, config.getScopeNeighbourhood());
+      }
+    } catch (StashConfigurationException e) {
+      LOGGER.error("Unable to restrict analysis to pull-request: {}", e.getMessage());
+      LOGGER.debug("Exception stack trace", e);
+    }
+  }
+
+  /**
+   * Restrict inclusions of each module to the changed files it contains.
+   * Modules without changes in their whole hierarchy are removed from the analysis; aggregator modules without changes of their own
+   * are kept for their sub-modules, but all their files are excluded.
+   * Inclusions defined by the user are kept: only the changed files matching them are included, without neighbourhood.
+   *
+   * @param changedPaths paths of the changed files, relative to the project base directory
+   * @param neighbourhood number of parent directories of the changed files to include as a whole
+   */
+  static void restrictToChanges(ProjectReactor reactor, List<String> changedPaths, int neighbourhood) {
+    File projectBaseDir = reactor.getRoot().getBaseDir();
+
+    List<ProjectDefinition> modules = reactor.getProjects();
+    List<String> modulePaths = new ArrayList<>();
+    Map<ProjectDefinition, List<String>> moduleChanges = new HashMap<>();
+    for (ProjectDefinition module : modules) {
+      // null if the module is not in the project base directory: none of the changed paths belongs to it
+      modulePaths.add(new PathResolver().relativePath(projectBaseDir, module.getBaseDir()));
+    }
+
+    for (String changedPath : changedPaths) {
+
+      // a changed file belongs to the deepest module containing it
+      int moduleIndex = -1;
+      for (int i = 0; i < modules.size(); i++) {
+        String modulePath = modulePaths.get(i);
+        if (isInModule(changedPath, modulePath) && ((moduleIndex < 0) || (modulePath.length() > modulePaths.get(moduleIndex).length()))) {
+          moduleIndex = i;
+        }
+      }
+
+      if (moduleIndex >= 0) {
+        String modulePath = modulePaths.get(moduleIndex);
+        String relativePath = modulePath.isEmpty() ? changedPath : changedPath.substring(modulePath.length() + 1);
+        addModuleChange(moduleChanges, modules.get(moduleIndex), relativePath);
+      }
+    }
+
+    boolean hasChanges = false;
+    int skippedModules = 0;
+    for (ProjectDefinition module : modules) {
+      List<String> relativePaths = moduleChanges.get(module);
+
+      boolean hasSources = false;
+      boolean hasTests = false;
+      if (relativePaths != null) {
+        hasSources = restrictInclusions(module, CoreProperties.PROJECT_INCLUSIONS_PROPERTY, CoreProperties.PROJECT_EXCLUSIONS_PROPERTY,
+            relativePaths, neighbourhood);
+        hasTests = restrictInclusions(module, CoreProperties.PROJECT_TEST_INCLUSIONS_PROPERTY, CoreProperties.PROJECT_TEST_EXCLUSIONS_PROPERTY,
+            relativePaths, neighbourhood);
+      }
+
+      if (hasSources || hasTests) {
+        hasChanges = true;
+      } else if ((module.getParent() != null) && ! hasChangedSubProject(module, moduleChanges)) {
+
+        // module is neither built nor scanned
+        module.remove();
+        skippedModules++;
+      } else {
+        module.setProperty(CoreProperties.PROJECT_EXCLUSIONS_PROPERTY, ALL_FILES_PATTERN);
+        module.setProperty(CoreProperties.PROJECT_TEST_EXCLUSIONS_PROPERTY, ALL_FILES_PATTERN);
+      }
+    }
+
+    if (hasChanges) {
+      LOGGER.info("Analysis restricted to the {} files changed by the pull-request, {} modules without changes skipped", changedPaths.size(),
+          skippedModules);
+    } else {
+      LOGGER.info("Pull-request changes no file of the project: analysis skipped");
+    }
+  }
+
+  private static void addModuleChange(Map<ProjectDefinition, List<String>> moduleChanges, ProjectDefinition module, String relativePath) {
+    List<String> relativePaths = moduleChanges.get(module);
+    if (relativePaths == null) {
+      relativePaths = new ArrayList<>();
+      moduleChanges.put(module, relativePaths);
+    }
+
+    relativePaths.add(relativePath);
+  }
+
+  private static boolean hasChangedSubProject(ProjectDefinition module, Map<ProjectDefinition, List<String>> moduleChanges) {
+    for (ProjectDefinition subProject : module.getSubProjects()) {
+      if (moduleChanges.containsKey(subProject) || hasChangedSubProject(subProject, moduleChanges)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Set the given inclusions of the module to the changed files, intersected with the inclusions defined by the user if any.
+   * All the files are excluded if no changed file is left.
+   *
+   * @return true if some changed files are included
+   */
+  private static boolean restrictInclusions(ProjectDefinition module, String inclusionsProperty, String exclusionsProperty, List<String> relativePaths,
+      int neighbourhood) {
+    String userInclusions = module.getProperties().getProperty(inclusionsProperty);
+
+    Set<String> inclusions = new LinkedHashSet<>();
+    if (StringUtils.isBlank(userInclusions)) {
+      for (String relativePath : relativePaths) {
+        inclusions.add(getInclusionPattern(relativePath, neighbourhood));
+      }
+    } else {
+
+      // intersection of the changed directories with user patterns cannot be expressed as patterns: only changed files are included
+      WildcardPattern[] userPatterns = WildcardPattern.create(StringUtils.stripAll(StringUtils.split(userInclusions, ',')));
+      for (String relativePath : relativePaths) {
+        if (WildcardPattern.match(userPatterns, relativePath)) {
+          inclusions.add(relativePath);
+        }
+      }
+    }
+
+    if (inclusions.isEmpty()) {
+      module.setProperty(exclusionsProperty, ALL_FILES_PATTERN);
+    } else {
+      module.setProperty(inclusionsProperty, StringUtils.join(inclusions, ","));
+    }
+
+    return ! inclusions.isEmpty();
+  }
+
+  private static boolean isInModule(String path, String modulePath) {
+    return (modulePath != null) && (modulePath.isEmpty() || path.startsWith(modulePath + "/"));
+  }
+
+  /**
+   * Pattern of the file itself, or of the whole content of its n-th parent directory.
+   */
+  static String getInclusionPattern(String relativePath, int neighbourhood) {
+    if (neighbourhood <= 0) {
+      return relativePath;
+    }
+
+    String[] segments = StringUtils.split(relativePath, '/');
+    int depth = segments.length - neighbourhood;
+    if (depth <= 0) {
+      return ALL_DIRECTORIES_PATTERN;
+    }
+
+    return StringUtils.join(segments, '/', 0, depth) + "/" + ALL_DIRECTORIES_PATTERN;
   }
 
 }
@@ -1,9 +1,20 @@
 package org.sonar.plugins.stash;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,16 +23,22 @@ import org.sonar.api.batch.InstantiationStrategy;
 import org.sonar.api.issue.ProjectIssues;
 import org.sonar.plugins.stash.client.StashClient;
 import org.sonar.plugins.stash.client.StashCredentials;
+import org.sonar.plugins.stash.client.StashResponseCache;
+import org.sonar.plugins.stash.client.StashRetryPolicy;
 import org.sonar.plugins.stash.exceptions.StashClientException;
 import org.sonar.plugins.stash.exceptions.StashConfigurationException;
+import org.sonar.plugins.stash.issue.DiffFilter;
+import org.sonar.plugins.stash.issue.IssueMarkdownCache;
 import org.sonar.plugins.stash.issue.MarkdownPrinter;
 import org.sonar.plugins.stash.issue.SonarQubeIssue;
 import org.sonar.plugins.stash.issue.SonarQubeIssuesReport;
 import org.sonar.plugins.stash.issue.StashComment;
+import org.sonar.plugins.stash.issue.StashCommentDeletionReport;
 import org.sonar.plugins.stash.issue.StashCommentReport;
 import org.sonar.plugins.stash.issue.StashDiffReport;
 import org.sonar.plugins.stash.issue.StashPullRequest;
 import org.sonar.plugins.stash.issue.StashUser;
+import org.sonar.plugins.stash.issue.StringDictionary;
 import org.sonar.plugins.stash.issue.collector.SonarQubeCollector;
 
 @InstantiationStrategy(InstantiationStrategy.PER_BATCH)
@@ -31,28 +48,33 @@ public class StashRequestFacade implements BatchComponent {
   
   private StashPluginConfiguration config;
   private File projectBaseDir;
+  private File workingDir;
   
   public StashRequestFacade(StashPluginConfiguration stashPluginConfiguration) {
     this.config = stashPluginConfiguration;
   }
   
-  public void initialize(File projectBaseDir) {
+  public void initialize(File projectBaseDir, File workingDir) {
     this.projectBaseDir = projectBaseDir;
+    this.workingDir = workingDir;
   }
   
-  public SonarQubeIssuesReport extractIssueReport(ProjectIssues projectIssues, InputFileCache inputFileCache){
-    return SonarQubeCollector.extractIssueReport(projectIssues, inputFileCache, projectBaseDir);
+  /**
+   * Extract the new issues of the analysis: issues out of the pull-request diff are only counted for the overview.
+   */
+  public SonarQubeIssuesReport extractIssueReport(ProjectIssues projectIssues, InputFileCache inputFileCache, StringDictionary strings, DiffFilter diffFilter){
+    return SonarQubeCollector.extractIssueReport(projectIssues, inputFileCache, projectBaseDir, strings, diffFilter);
   }
 
   /**
    * Post SQ analysis overview on Stash
    */
-  public void postAnalysisOverview(String project, String repository, String pullRequestId, String sonarQubeURL, int issueThreshold, SonarQubeIssuesReport issueReport, StashClient stashClient){
+  public void postAnalysisOverview(String project, String repository, String pullRequestId, IssueMarkdownCache issueMarkdowns, int issueThreshold, SonarQubeIssuesReport issueReport, StashClient stashClient){
     try {
       stashClient.postCommentOnPullRequest(project,
                                          repository,
                                          pullRequestId,
-                                         MarkdownPrinter.printReportMarkdown(issueReport, sonarQubeURL, issueThreshold));
+                                         MarkdownPrinter.printReportMarkdown(issueReport, issueMarkdowns, issueThreshold));
     
       LOGGER.info("SonarQube analysis overview has been reported to Stash.");
       
@@ -117,29 +139,41 @@ public class StashRequestFacade implements BatchComponent {
   
   /**
    * Post one comment by found issue on Stash.
+   * Comments are posted one by one, or concurrently if a post parallelism greater than 1 is configured.
+   * In incremental mode, comments posted by the previous analysis are known from the comment store without requesting Stash,
+   * and comments of the issues which have disappeared since are deleted.
    */
-  public void postCommentPerIssue(String project, String repository, String pullRequestId, String sonarQubeURL, SonarQubeIssuesReport issueReport, StashDiffReport diffReport, StashClient stashClient){
+  public void postCommentPerIssue(String project, String repository, String pullRequestId, IssueMarkdownCache issueMarkdowns, SonarQubeIssuesReport issueReport, StashDiffReport diffReport, StashClient stashClient){
+    int parallelism = config.getPostParallelism();
+    ExecutorService executor = null;
+    if (parallelism > 1) {
+      executor = Executors.newFixedThreadPool(parallelism);
+    }
+    
+    StashCommentStore commentStore = null;
+    if (config.isIncrementalMode()) {
+      commentStore = loadCommentStore(project, repository, pullRequestId);
+    }
+    boolean commentsKnown = false;
+    boolean commentsPosted = false;
+    
+    Map<SonarQubeIssue, Future<Void>> postedComments = new LinkedHashMap<>();
+    
     try {
-      // to optimize request to Stash, builds comment match ordered by filepath
-      Map<String,StashCommentReport> commentsByFile = new HashMap<>();
-      for (SonarQubeIssue issue : issueReport.getIssues()) {
-        if (commentsByFile.get(issue.getPath()) == null){
-          StashCommentReport comments = stashClient.getPullRequestComments(project, repository, pullRequestId, issue.getPath());
-          
-          // According to the type of the comment
-          // if type == CONTEXT, comment.line is set to source line instead of destination line
-          comments.applyDiffReport(diffReport);
-          
-          commentsByFile.put(issue.getPath(), comments);
-        }
+      // to optimize request to Stash, all the comments of the pull-request are fetched before posting, ordered by filepath
+      Map<String, StashCommentReport> commentsByFile;
+      if ((commentStore != null) && commentStore.isLoaded()) {
+        commentsByFile = Collections.emptyMap();
+      } else {
+        commentsByFile = getCommentsByFile(project, repository, pullRequestId, issueReport, diffReport, stashClient, executor);
       }
+      commentsKnown = true;
       
       for (SonarQubeIssue issue : issueReport.getIssues()) {
-        StashCommentReport comments = commentsByFile.get(issue.getPath());
+        String message = issueMarkdowns.get(issue);
         
         // if comment not already pushed to Stash
-        if ((comments != null) &&
-            (comments.contains(MarkdownPrinter.printIssueMarkdown(issue, sonarQubeURL), issue.getPath(), issue.getLine()))) {
+        if (isAlreadyPosted(issue, message, commentsByFile, commentStore)) {
           LOGGER.debug("Comment \"{}\" already pushed on file {} ({})", issue.getRule(), issue.getPath(), issue.getLine());
         } else {
         
@@ -150,25 +184,305 @@ public class StashRequestFacade implements BatchComponent {
           } else{
           
             long line = diffReport.getLine(issue.getPath(), issue.getLine());
+            CommentLinePost commentLinePost = new CommentLinePost(stashClient, project, repository, pullRequestId, issue, message, line, type, commentStore);
             
-            stashClient.postCommentLineOnPullRequest(project,
-                                                     repository,
-                                                     pullRequestId,
-                                                     MarkdownPrinter.printIssueMarkdown(issue, sonarQubeURL),
-                                                     issue.getPath(),
-                                                     line,
-                                                     type);
+            if (executor == null) {
+              commentLinePost.call();
   
-            LOGGER.debug("Comment \"{}\" has been created ({}) on file {} ({})", issue.getRule(), type, issue.getPath(), line);
+              LOGGER.debug("Comment \"{}\" has been created ({}) on file {} ({})", issue.getRule(), type, issue.getPath(), line);
+            } else {
+              postedComments.put(issue, executor.submit(commentLinePost));
+            }
           }
         }
       }
       
-      LOGGER.info("New SonarQube issues have been reported to Stash.");
+      if (executor == null) {
+        LOGGER.info("New SonarQube issues have been reported to Stash.");
+      } else {
+        waitForCommentPosts(postedComments);
+      }
+      commentsPosted = true;
       
     } catch (StashClientException e){
       LOGGER.error("Unable to link SonarQube issues to Stash: {}", e.getMessage());
       LOGGER.debug("Exception stack trace", e);
+    } finally {
+      
+      // comments posted so far are stored even if the process failed, so that they are not posted twice
+      if ((commentStore != null) && commentsKnown) {
+        updateCommentStore(project, repository, pullRequestId, commentStore, commentsPosted, stashClient, executor);
+      }
+      
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+  }
+  
+  /**
+   * Check if the comment of the issue has already been pushed to Stash, and if so record it into the comment store if any.
+   */
+  private static boolean isAlreadyPosted(SonarQubeIssue issue, String message, Map<String, StashCommentReport> commentsByFile, StashCommentStore commentStore) {
+    boolean result;
+    
+    if ((commentStore != null) && commentStore.isLoaded()) {
+      StashComment comment = commentStore.getPreviousComment(message, issue.getPath(), issue.getLine());
+      result = (comment != null);
+      if (result) {
+        commentStore.add(issue, message, comment);
+      }
+    } else {
+      StashCommentReport comments = commentsByFile.get(issue.getPath());
+      result = (comments != null) && comments.contains(message, issue.getPath(), issue.getLine());
+      if (result && (commentStore != null)) {
+        commentStore.add(issue, message, comments.getComment(message, issue.getPath(), issue.getLine()));
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Comment store of the pull-request, loaded with the comments of the previous analysis if any.
+   * Null if no state directory is available, in which case the incremental mode is disabled.
+   */
+  private StashCommentStore loadCommentStore(String project, String repository, String pullRequestId) {
+    StashCommentStore result = getCommentStore(project, repository, pullRequestId);
+    if (result == null) {
+      LOGGER.warn("No directory available to keep track of posted comments: incremental mode is disabled");
+    } else {
+      try {
+        if (result.load()) {
+          LOGGER.debug("Comments of the previous analysis read from {}", result.getFile());
+        }
+      } catch (IOException e) {
+        LOGGER.error("Unable to read comments of the previous analysis, comments are checked on Stash: {}", e.getMessage());
+        LOGGER.debug("Exception stack trace", e);
+        
+        result = getCommentStore(project, repository, pullRequestId);
+      }
+    }
+    
+    return result;
+  }
+  
+  private StashCommentStore getCommentStore(String project, String repository, String pullRequestId) {
+    StashCommentStore result = null;
+    
+    String stateDir = config.getIncrementalStateDir();
+    if (stateDir != null) {
+      result = new StashCommentStore(new File(stateDir), project, repository, pullRequestId);
+    } else if (workingDir != null) {
+      result = new StashCommentStore(workingDir, project, repository, pullRequestId);
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Delete the comments of the issues which have disappeared, and store the comments of the current analysis.
+   * If the comments have not all been posted, the previous ones are kept until the next analysis.
+   */
+  private static void updateCommentStore(String project, String repository, String pullRequestId, StashCommentStore commentStore, boolean commentsPosted,
+      StashClient stashClient, ExecutorService executor) {
+    
+    List<StashComment> staleComments = commentStore.getStaleComments();
+    if (commentsPosted) {
+      StashCommentDeletionReport deletionReport = new StashCommentDeletionReport();
+      Map<StashComment, Future<Void>> deletedComments = new LinkedHashMap<>();
+      
+      for (StashComment comment : staleComments) {
+        CommentDeletion commentDeletion = new CommentDeletion(stashClient, project, repository, pullRequestId, comment);
+        if (executor == null) {
+          try {
+            commentDeletion.call();
+            deletionReport.addDeleted(comment);
+          } catch (StashClientException e) {
+            addFailedDeletion(deletionReport, comment, e);
+          }
+        } else {
+          deletedComments.put(comment, executor.submit(commentDeletion));
+        }
+      }
+      waitForCommentDeletions(deletedComments, deletionReport);
+      
+      // comments not deleted this time are deleted by the next analysis
+      for (StashComment comment : deletionReport.getFailedComments().keySet()) {
+        commentStore.keep(comment);
+      }
+      
+      LOGGER.info("{} comments of fixed SonarQube issues have been deleted from Stash", deletionReport.countDeleted());
+    } else {
+      for (StashComment comment : staleComments) {
+        commentStore.keep(comment);
+      }
+    }
+    
+    try {
+      commentStore.save();
+      
+      LOGGER.debug("{} posted comments stored in {}", commentStore.size(), commentStore.getFile());
+      
+    } catch (IOException e) {
+      LOGGER.error("Unable to store posted comments for the next analysis: {}", e.getMessage());
+      LOGGER.debug("Exception stack trace", e);
+    }
+  }
+  
+  /**
+   * Get the comments already pushed on each file of the SonarQube report.
+   * Files are requested one by one, or concurrently if an executor is provided.
+   */
+  private static Map<String, StashCommentReport> getCommentsByFile(String project, String repository, String pullRequestId, SonarQubeIssuesReport issueReport,
+      StashDiffReport diffReport, StashClient stashClient, ExecutorService executor) throws StashClientException {
+    
+    Map<String, StashCommentReport> result = new HashMap<>();
+    Map<String, Future<StashCommentReport>> fetchedComments = new LinkedHashMap<>();
+    
+    for (SonarQubeIssue issue : issueReport.getIssues()) {
+      String path = issue.getPath();
+      if (! result.containsKey(path) && ! fetchedComments.containsKey(path)) {
+        CommentFetch commentFetch = new CommentFetch(stashClient, project, repository, pullRequestId, path, diffReport);
+        
+        if (executor == null) {
+          result.put(path, commentFetch.call());
+        } else {
+          fetchedComments.put(path, executor.submit(commentFetch));
+        }
+      }
+    }
+    
+    for (Map.Entry<String, Future<StashCommentReport>> fetchedComment : fetchedComments.entrySet()) {
+      try {
+        result.put(fetchedComment.getKey(), fetchedComment.getValue().get());
+        
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof StashClientException) {
+          throw (StashClientException) e.getCause();
+        }
+        throw new StashClientException(e.getCause());
+        
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StashClientException("Interrupted while getting pull-request comments", e);
+      }
+    }
+    
+    LOGGER.debug("Comments of {} files retrieved from pull request {} #{}", result.size(), repository, pullRequestId);
+    
+    return result;
+  }
+  
+  /**
+   * Wait for all the comments posted in parallel, and report successes and failures.
+   * @return number of posted comments
+   */
+  private static int waitForCommentPosts(Map<SonarQubeIssue, Future<Void>> postedComments) {
+    int succeeded = 0;
+    int failed = 0;
+    
+    for (Map.Entry<SonarQubeIssue, Future<Void>> postedComment : postedComments.entrySet()) {
+      SonarQubeIssue issue = postedComment.getKey();
+      try {
+        postedComment.getValue().get();
+        succeeded++;
+        
+        LOGGER.debug("Comment \"{}\" has been created on file {} ({})", issue.getRule(), issue.getPath(), issue.getLine());
+        
+      } catch (ExecutionException e) {
+        failed++;
+        
+        LOGGER.error("Unable to link SonarQube issue {} to Stash: {}", issue.getKey(), e.getCause().getMessage());
+        LOGGER.debug("Exception stack trace", e.getCause());
+        
+      } catch (InterruptedException e) {
+        LOGGER.error("Interrupted while linking SonarQube issues to Stash: {}", e.getMessage());
+        LOGGER.debug("Exception stack trace", e);
+        
+        Thread.currentThread().interrupt();
+        return succeeded;
+      }
+    }
+    
+    if (failed == 0) {
+      LOGGER.info("New SonarQube issues have been reported to Stash ({} comments posted).", succeeded);
+    } else {
+      LOGGER.error("{} SonarQube issues have been reported to Stash, {} failed.", succeeded, failed);
+    }
+    
+    return succeeded;
+  }
+  
+  /**
+   * Comments of a file, requested on Stash by a worker thread.
+   */
+  private static class CommentFetch implements Callable<StashCommentReport> {
+    
+    private final StashClient stashClient;
+    private final String project;
+    private final String repository;
+    private final String pullRequestId;
+    private final String path;
+    private final StashDiffReport diffReport;
+    
+    CommentFetch(StashClient stashClient, String project, String repository, String pullRequestId, String path, StashDiffReport diffReport) {
+      this.stashClient = stashClient;
+      this.project = project;
+      this.repository = repository;
+      this.pullRequestId = pullRequestId;
+      this.path = path;
+      this.diffReport = diffReport;
+    }
+    
+    @Override
+    public StashCommentReport call() throws StashClientException {
+      StashCommentReport comments = stashClient.getPullRequestComments(project, repository, pullRequestId, path);
+      
+      // According to the type of the comment
+      // if type == CONTEXT, comment.line is set to source line instead of destination line
+      return comments.applyDiffReport(diffReport);
+    }
+  }
+  
+  /**
+   * Line comment posted on Stash, by a worker thread if posted concurrently.
+   * If a comment store is provided, the created comment is recorded into it.
+   */
+  private static class CommentLinePost implements Callable<Void> {
+    
+    private final StashClient stashClient;
+    private final String project;
+    private final String repository;
+    private final String pullRequestId;
+    private final SonarQubeIssue issue;
+    private final String message;
+    private final long line;
+    private final String type;
+    private final StashCommentStore commentStore;
+    
+    CommentLinePost(StashClient stashClient, String project, String repository, String pullRequestId, SonarQubeIssue issue, String message, long line, String type,
+        StashCommentStore commentStore) {
+      this.stashClient = stashClient;
+      this.project = project;
+      this.repository = repository;
+      this.pullRequestId = pullRequestId;
+      this.issue = issue;
+      this.message = message;
+      this.line = line;
+      this.type = type;
+      this.commentStore = commentStore;
+    }
+    
+    @Override
+    public Void call() throws StashClientException {
+      if (commentStore == null) {
+        stashClient.postCommentLineOnPullRequest(project, repository, pullRequestId, message, issue.getPath(), line, type);
+      } else {
+        StashComment comment = stashClient.createCommentLineOnPullRequest(project, repository, pullRequestId, message, issue.getPath(), line, type);
+        commentStore.add(issue, message, comment);
+      }
+      return null;
     }
   }
   
@@ -176,6 +490,41 @@ public class StashRequestFacade implements BatchComponent {
     return new StashCredentials(config.getStashLogin(), config.getStashPassword());
   }
   
+  /**
+   * Create a Stash client from the plugin configuration: every request of the analysis goes through the clients it creates.
+   * @param strings canonical paths and messages of the analysis, shared with the client
+   * @throws StashConfigurationException if Stash URL is not configured
+   */
+  public StashClient createStashClient(StringDictionary strings) throws StashConfigurationException {
+    String stashURL = getStashURL();
+    
+    // parallel comment posting needs at least one connection per in-flight request
+    int maxConnectionsPerHost = config.getStashMaxConnectionsPerHost();
+    if (maxConnectionsPerHost > 0) {
+      maxConnectionsPerHost = Math.max(maxConnectionsPerHost, config.getPostParallelism());
+    }
+    
+    // pull-request, user and diff responses of the previous analyses are revalidated instead of downloaded again
+    StashResponseCache responseCache = null;
+    String responseCacheDir = config.getResponseCacheDir();
+    if (responseCacheDir != null) {
+      responseCache = new StashResponseCache(new File(responseCacheDir), config.getResponseCacheSize() * 1024L * 1024L);
+    }
+    
+    // requests throttled or rejected by an overloaded Stash are retried instead of failing the whole posting
+    StashRetryPolicy retryPolicy = new StashRetryPolicy(config.getMaxRetries(), config.getRetryBackoff(), config.getRetryMaxBackoff());
+    
+    return StashClient.builder(stashURL, getCredentials(), config.getStashTimeout())
+        .acceptAnyCertificate(config.acceptAnyCertificate())
+        .maxConnectionsPerHost(maxConnectionsPerHost)
+        .commentPageSize(config.getCommentPageSize())
+        .responseCache(responseCache)
+        .strings(strings)
+        .rateLimit(config.getRateLimit())
+        .retryPolicy(retryPolicy)
+        .build();
+  }
+  
   /**
    * Mandatory Issue Threshold option.
    * @throws StashConfigurationException if unable to get parameter as Integer
@@ -281,23 +630,233 @@ public class StashRequestFacade implements BatchComponent {
   }
   
   /**
-   * Reset all comments linked to a pull-request.
+   * Get the paths of the files added or modified by the Stash pull-request, null if Stash cannot provide them.
    */
-  public void resetComments(String project, String repository, String pullRequestId, StashDiffReport diffReport, StashUser sonarUser, StashClient stashClient) {
+  public List<String> getPullRequestChanges(String project, String repository, String pullRequestId, StashClient stashClient){
+    List<String> result = null;
+    
     try {
-      for (StashComment comment : diffReport.getComments()) {
+      result = stashClient.getPullRequestChanges(project, repository, pullRequestId);
+      
+      LOGGER.debug("{} files changed by pull request {} #{}", result.size(), repository, pullRequestId);
+      
+    } catch(StashClientException e){
+      LOGGER.error("Unable to get files changed by pull-request from Stash: {}", e.getMessage());
+      LOGGER.debug("Exception stack trace", e);
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Reconcile the comments published by the current SQ user with the issues of the report, instead of resetting and posting them all again:
+   * comments of issues which have disappeared are deleted, comments of new issues are created, and unchanged comments are left untouched.
+   * Existing comments are taken from the diff view, so that no comment has to be requested file by file.
+   * Comments of other users are never matched with issues nor deleted, even if they have the same message at the same place.
+   * @return comments deleted, or failed to be deleted, as stale
+   */
+  public StashCommentDeletionReport reconcileComments(String project, String repository, String pullRequestId, IssueMarkdownCache issueMarkdowns, SonarQubeIssuesReport issueReport,
+      StashDiffReport diffReport, StashUser sonarUser, StashClient stashClient) {
+    
+    StashCommentReport existingComments = new StashCommentReport();
+    for (StashComment comment : diffReport.getComments()) {
+      if (sonarUser.getId() == comment.getAuthor().getId()) {
+        existingComments.add(comment);
+      }
+    }
+    
+    // comment of each issue: the existing one if any, a new one otherwise
+    Set<Long> keptCommentIds = new HashSet<>();
+    Map<SonarQubeIssue, String> missingComments = new LinkedHashMap<>();
+    for (SonarQubeIssue issue : issueReport.getIssues()) {
+      String message = issueMarkdowns.get(issue);
+      
+      StashComment comment = existingComments.getComment(message, issue.getPath(), issue.getLine());
+      if (comment != null) {
+        keptCommentIds.add(comment.getId());
+      } else if (diffReport.getType(issue.getPath(), issue.getLine()) == null) {
+        LOGGER.info("Comment \"{}\" cannot be pushed to Stash like it does not belong to diff view - {} (line: {})", issue.getRule(), issue.getPath(), issue.getLine());
+      } else {
+        missingComments.put(issue, message);
+      }
+    }
+    
+    // comments of the current SQ user which do not match any issue anymore, or duplicates
+    List<StashComment> staleComments = new ArrayList<>();
+    for (StashComment comment : existingComments.getComments()) {
+      if (! keptCommentIds.contains(comment.getId())) {
+        staleComments.add(comment);
+      }
+    }
+    
+    StashCommentDeletionReport deletionReport = deleteComments(project, repository, pullRequestId, staleComments, stashClient);
+    int createdComments = createComments(project, repository, pullRequestId, missingComments, diffReport, stashClient);
+    
+    LOGGER.info("SonarQube comments reconciled with Stash: {} kept, {} created, {} deleted", keptCommentIds.size(), createdComments, deletionReport.countDeleted());
+    if (deletionReport.countFailed() > 0) {
+      LOGGER.error("Unable to delete {} comments of fixed SonarQube issues", deletionReport.countFailed());
+    }
+    
+    // stored comments are out of date: the next posting checks them on Stash
+    if (config.isIncrementalMode()) {
+      deleteCommentStore(project, repository, pullRequestId);
+    }
+    
+    return deletionReport;
+  }
+  
+  /**
+   * Delete the given comments, one by one or concurrently if a post parallelism greater than 1 is configured.
+   * A failed deletion does not prevent the other comments from being deleted.
+   */
+  private StashCommentDeletionReport deleteComments(String project, String repository, String pullRequestId, List<StashComment> comments, StashClient stashClient) {
+    StashCommentDeletionReport result = new StashCommentDeletionReport();
+    
+    int parallelism = config.getPostParallelism();
+    if ((parallelism > 1) && (comments.size() > 1)) {
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, comments.size()));
+      try {
+        Map<StashComment, Future<Void>> deletedComments = new LinkedHashMap<>();
+        for (StashComment comment : comments) {
+          deletedComments.put(comment, executor.submit(new CommentDeletion(stashClient, project, repository, pullRequestId, comment)));
+        }
+        
+        waitForCommentDeletions(deletedComments, result);
         
-        // delete comment if published by the current SQ user
-        if (sonarUser.getId() == comment.getAuthor().getId()) {
+      } finally {
+        executor.shutdown();
+      }
+    } else {
+      for (StashComment comment : comments) {
+        try {
           stashClient.deletePullRequestComment(project, repository, pullRequestId, comment);
+          result.addDeleted(comment);
+          
+        } catch (StashClientException e) {
+          addFailedDeletion(result, comment, e);
+        }
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Create a line comment per issue, one by one or concurrently if a post parallelism greater than 1 is configured.
+   * A failed comment does not prevent the other ones from being created.
+   * @return number of created comments
+   */
+  private int createComments(String project, String repository, String pullRequestId, Map<SonarQubeIssue, String> messages, StashDiffReport diffReport,
+      StashClient stashClient) {
+    int result = 0;
+    
+    int parallelism = config.getPostParallelism();
+    ExecutorService executor = null;
+    if ((parallelism > 1) && (messages.size() > 1)) {
+      executor = Executors.newFixedThreadPool(Math.min(parallelism, messages.size()));
+    }
+    
+    try {
+      Map<SonarQubeIssue, Future<Void>> postedComments = new LinkedHashMap<>();
+      for (Map.Entry<SonarQubeIssue, String> message : messages.entrySet()) {
+        SonarQubeIssue issue = message.getKey();
+        String type = diffReport.getType(issue.getPath(), issue.getLine());
+        long line = diffReport.getLine(issue.getPath(), issue.getLine());
+        CommentLinePost commentLinePost = new CommentLinePost(stashClient, project, repository, pullRequestId, issue, message.getValue(), line, type, null);
+        
+        if (executor == null) {
+          try {
+            commentLinePost.call();
+            result++;
+            
+            LOGGER.debug("Comment \"{}\" has been created ({}) on file {} ({})", issue.getRule(), type, issue.getPath(), line);
+            
+          } catch (StashClientException e) {
+            LOGGER.error("Unable to link SonarQube issue {} to Stash: {}", issue.getKey(), e.getMessage());
+            LOGGER.debug("Exception stack trace", e);
+          }
+        } else {
+          postedComments.put(issue, executor.submit(commentLinePost));
         }
       }
       
-      LOGGER.info("SonarQube issues reported to Stash by user \"{}\" have been reset", sonarUser.getName());
-      
-    } catch (StashClientException e){
-      LOGGER.error("Unable to reset comment list, {}", e.getMessage());
-      LOGGER.debug("Exception stack trace", e);
+      if (executor != null) {
+        result = waitForCommentPosts(postedComments);
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+    
+    return result;
+  }
+  
+  /**
+   * Wait for all the comments deleted in parallel, and report successes and failures.
+   */
+  private static void waitForCommentDeletions(Map<StashComment, Future<Void>> deletedComments, StashCommentDeletionReport result) {
+    for (Map.Entry<StashComment, Future<Void>> deletedComment : deletedComments.entrySet()) {
+      StashComment comment = deletedComment.getKey();
+      try {
+        deletedComment.getValue().get();
+        result.addDeleted(comment);
+        
+      } catch (ExecutionException e) {
+        addFailedDeletion(result, comment, e.getCause());
+        
+      } catch (InterruptedException e) {
+        LOGGER.error("Interrupted while resetting comment list: {}", e.getMessage());
+        LOGGER.debug("Exception stack trace", e);
+        
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+  
+  private void deleteCommentStore(String project, String repository, String pullRequestId) {
+    StashCommentStore commentStore = getCommentStore(project, repository, pullRequestId);
+    if (commentStore != null) {
+      try {
+        commentStore.delete();
+      } catch (IOException e) {
+        LOGGER.error("Unable to reset stored comments: {}", e.getMessage());
+        LOGGER.debug("Exception stack trace", e);
+      }
+    }
+  }
+  
+  private static void addFailedDeletion(StashCommentDeletionReport result, StashComment comment, Throwable e) {
+    result.addFailed(comment, e.getMessage());
+    
+    LOGGER.error("Unable to delete comment {}: {}", comment.getId(), e.getMessage());
+    LOGGER.debug("Exception stack trace", e);
+  }
+  
+  /**
+   * Comment deleted on Stash by a worker thread.
+   */
+  private static class CommentDeletion implements Callable<Void> {
+    
+    private final StashClient stashClient;
+    private final String project;
+    private final String repository;
+    private final String pullRequestId;
+    private final StashComment comment;
+    
+    CommentDeletion(StashClient stashClient, String project, String repository, String pullRequestId, StashComment comment) {
+      this.stashClient = stashClient;
+      this.project = project;
+      this.repository = repository;
+      this.pullRequestId = pullRequestId;
+      this.comment = comment;
+    }
+    
+    @Override
+    public Void call() throws StashClientException {
+      stashClient.deletePullRequestComment(project, repository, pullRequestId, comment);
+      return null;
     }
   }
 }
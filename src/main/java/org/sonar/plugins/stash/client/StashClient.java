@@ -1,42 +1,66 @@
 package org.sonar.plugins.stash.client;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sonar.plugins.stash.StashPlugin;
 import org.sonar.plugins.stash.exceptions.StashClientException;
 import org.sonar.plugins.stash.exceptions.StashReportExtractionException;
+import org.sonar.plugins.stash.issue.StashChangePage;
 import org.sonar.plugins.stash.issue.StashComment;
+import org.sonar.plugins.stash.issue.StashCommentPage;
 import org.sonar.plugins.stash.issue.StashCommentReport;
 import org.sonar.plugins.stash.issue.StashDiffReport;
 import org.sonar.plugins.stash.issue.StashPullRequest;
 import org.sonar.plugins.stash.issue.StashUser;
+import org.sonar.plugins.stash.issue.StashUserRegistry;
+import org.sonar.plugins.stash.issue.StringDictionary;
 import org.sonar.plugins.stash.issue.collector.StashCollector;
 
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
 import com.ning.http.client.AsyncHttpClientConfig;
-import com.ning.http.client.AsyncHttpClientConfig.Builder;
 import com.ning.http.client.Realm;
 import com.ning.http.client.Realm.AuthScheme;
 import com.ning.http.client.Response;
 
-public class StashClient {
+public class StashClient implements AutoCloseable {
 
   private final String baseUrl;
   private final StashCredentials credentials;
   private final int stashTimeout;
   private final boolean acceptAnyCertificate;
+  private final int maxConnectionsPerHost;
+  private final int commentPageSize;
+  private final StashResponseCache responseCache;
+  private final StashUserRegistry users;
+  private final StringDictionary strings;
+  private final StashRateLimiter rateLimiter;
+  private final StashRetryPolicy retryPolicy;
+
+  private AsyncHttpClient httpClient;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StashClient.class);
 
   private static final String REST_API = "/rest/api/1.0/";
+  private static final String RETRY_AFTER_HEADER = "Retry-After";
   
   private static final String USER_API = "{0}users/{1}";
   private static final String REPO_API = "{0}projects/{1}/repos/{2}/";
@@ -44,7 +68,9 @@ public class StashClient {
   private static final String PULL_REQUEST_API = PULL_REQUESTS_API + "{3}";
   private static final String COMMENTS_PULL_REQUEST_API = PULL_REQUEST_API + "/comments";
   private static final String COMMENT_PULL_REQUEST_API = COMMENTS_PULL_REQUEST_API + "/{4}?version={5}";
+  private static final String FILE_COMMENTS_PULL_REQUEST_API = COMMENTS_PULL_REQUEST_API + "?path={4}&start={5}";
   private static final String DIFF_PULL_REQUEST_API = PULL_REQUEST_API + "/diff";
+  private static final String CHANGES_PULL_REQUEST_API = PULL_REQUEST_API + "/changes?start={4}";
   private static final String APPROVAL_PULL_REQUEST_API = PULL_REQUEST_API + "/approve";
   
   private static final String PULL_REQUEST_APPROVAL_POST_ERROR_MESSAGE = "Unable to change status of pull-request {0} #{1}. Received {2} with message {3}.";  
@@ -53,13 +79,33 @@ public class StashClient {
   private static final String USER_GET_ERROR_MESSAGE = "Unable to retrieve user {0}. Received {1} with message {2}.";  
   private static final String COMMENT_POST_ERROR_MESSAGE = "Unable to post a comment to {0} #{1}. Received {2} with message {3}.";  
   private static final String COMMENT_GET_ERROR_MESSAGE = "Unable to get comment linked to {0} #{1}. Received {2} with message {3}.";  
+  private static final String CHANGES_GET_ERROR_MESSAGE = "Unable to get files changed by {0} #{1}. Received {2} with message {3}.";  
   private static final String COMMENT_DELETION_ERROR_MESSAGE = "Unable to delete comment {0} from pull-request {1} #{2}. Received {3} with message {4}.";  
   
   public StashClient(String url, StashCredentials credentials, int stashTimeout, boolean acceptAnyCertificate) {
-    this.baseUrl = url;
-    this.credentials = credentials;
-    this.stashTimeout = stashTimeout;
-    this.acceptAnyCertificate = acceptAnyCertificate;
+    this(builder(url, credentials, stashTimeout).acceptAnyCertificate(acceptAnyCertificate));
+  }
+
+  private StashClient(Builder builder) {
+    this.baseUrl = builder.url;
+    this.credentials = builder.credentials;
+    this.stashTimeout = builder.stashTimeout;
+    this.acceptAnyCertificate = builder.acceptAnyCertificate;
+    this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+    this.commentPageSize = builder.commentPageSize;
+    this.responseCache = builder.responseCache;
+    this.users = new StashUserRegistry();
+    this.strings = builder.strings;
+    this.rateLimiter = builder.rateLimiter;
+    this.retryPolicy = builder.retryPolicy;
+  }
+
+  /**
+   * Builder of a client with the given mandatory options: other options are set by name, defaults are the ones of a plain client.
+   * @param stashTimeout timeout of each request (in ms)
+   */
+  public static Builder builder(String url, StashCredentials credentials, int stashTimeout) {
+    return new Builder(url, credentials, stashTimeout);
   }
 
   public void postCommentOnPullRequest(String project, String repository, String pullRequestId, String report)
@@ -69,12 +115,12 @@ public class StashClient {
     JSONObject json = new JSONObject();
     json.put("text", report);
 
-    AsyncHttpClient httpClient = createHttpClient();
+    AsyncHttpClient httpClient = getHttpClient();
     BoundRequestBuilder requestBuilder = httpClient.preparePost(request);
     requestBuilder.setBody(json.toString());
 
     try {
-      Response response = executeRequest(requestBuilder);
+      Response response = executeRequest(requestBuilder, false);
       int responseCode = response.getStatusCode();
       if (responseCode != HttpURLConnection.HTTP_CREATED) {
         String responseMessage = response.getStatusText();
@@ -82,8 +128,6 @@ public class StashClient {
       }
     } catch (ExecutionException | TimeoutException | InterruptedException | IOException e) {
       throw new StashClientException(e);
-    } finally{
-      httpClient.close();
     }
   }
 
@@ -91,33 +135,36 @@ public class StashClient {
       throws StashClientException {
     StashCommentReport result = new StashCommentReport();
     
-    AsyncHttpClient httpClient = createHttpClient();
+    AsyncHttpClient httpClient = getHttpClient();
     
     long start = 0;
     boolean isLastPage = false; 
     
     while (! isLastPage){
       try {
-        String request = MessageFormat.format(COMMENTS_PULL_REQUEST_API + "?path={4}&start={5}", baseUrl + REST_API, project, repository, pullRequestId, path, start);
+        // page start is formatted as a String: MessageFormat would add grouping separators to large numbers
+        String request = MessageFormat.format(FILE_COMMENTS_PULL_REQUEST_API, baseUrl + REST_API, project, repository, pullRequestId, path, String.valueOf(start));
+        if (commentPageSize > 0) {
+          request += "&limit=" + commentPageSize;
+        }
         BoundRequestBuilder requestBuilder = httpClient.prepareGet(request);
         
-        Response response = executeRequest(requestBuilder);
+        Response response = executeRequest(requestBuilder, true);
         int responseCode = response.getStatusCode();
         if (responseCode != HttpURLConnection.HTTP_OK) {
           String responseMessage = response.getStatusText();
           throw new StashClientException(MessageFormat.format(COMMENT_GET_ERROR_MESSAGE, repository, pullRequestId, responseCode, responseMessage));
         } else{
           String jsonComments = response.getResponseBody();
-          result.add(StashCollector.extractComments(jsonComments));
+          StashCommentPage page = StashCollector.extractCommentPage(jsonComments, users, strings);
+          result.add(page.getComments());
             
           // Stash pagination: check if you get all comments linked to the pull-request
-          isLastPage = StashCollector.isLastPage(jsonComments);
-          start = StashCollector.getNextPageStart(jsonComments);
+          isLastPage = page.isLastPage();
+          start = page.getNextPageStart();
         }
       } catch (ExecutionException | TimeoutException | InterruptedException | StashReportExtractionException | IOException e) {
         throw new StashClientException(e);
-      } finally{
-        httpClient.close();
       }
     }
   
@@ -130,11 +177,11 @@ public class StashClient {
     String request = MessageFormat.format(COMMENT_PULL_REQUEST_API, baseUrl + REST_API,
                       project, repository, pullRequestId, Long.toString(comment.getId()), Long.toString(comment.getVersion()));
 
-    AsyncHttpClient httpClient = createHttpClient();
+    AsyncHttpClient httpClient = getHttpClient();
     BoundRequestBuilder requestBuilder = httpClient.prepareDelete(request);
     
     try {
-      Response response = executeRequest(requestBuilder);
+      Response response = executeRequest(requestBuilder, true);
       int responseCode = response.getStatusCode();
       if (responseCode != HttpURLConnection.HTTP_NO_CONTENT) {
         String responseMessage = response.getStatusText();
@@ -142,8 +189,6 @@ public class StashClient {
       }
     } catch (ExecutionException | TimeoutException | InterruptedException | IOException e) {
       throw new StashClientException(e);
-    } finally{
-      httpClient.close();
     }
   }
   
@@ -151,25 +196,67 @@ public class StashClient {
       throws StashClientException {
     StashDiffReport result = new StashDiffReport();
     
-    AsyncHttpClient httpClient = createHttpClient();
+    AsyncHttpClient httpClient = getHttpClient();
     
     try {
       String request = MessageFormat.format(DIFF_PULL_REQUEST_API + "?withComments=true", baseUrl + REST_API, project, repository, pullRequestId);
       BoundRequestBuilder requestBuilder = httpClient.prepareGet(request);
+      StashResponseCache.Entry cachedResponse = getCachedResponse(request, requestBuilder);
         
-      Response response = executeRequest(requestBuilder);
+      Response response = executeRequest(requestBuilder, true);
       int responseCode = response.getStatusCode();
-      if (responseCode != HttpURLConnection.HTTP_OK) {
+      if ((responseCode != HttpURLConnection.HTTP_OK) && ! isNotModified(response, cachedResponse)) {
         String responseMessage = response.getStatusText();
         throw new StashClientException(MessageFormat.format(COMMENT_GET_ERROR_MESSAGE, repository, pullRequestId, responseCode, responseMessage));
       } else{
-        String jsonDiffs = response.getResponseBody();
-        result = StashCollector.extractDiffs(jsonDiffs);
+        // diff view can be huge: read it as a stream instead of loading it as a String
+        try (Reader jsonDiffs = new InputStreamReader(getResponseBodyAsStream(request, response, cachedResponse), StandardCharsets.UTF_8)) {
+          result = StashCollector.extractDiffs(jsonDiffs, users, strings);
+        }
       }
     } catch (ExecutionException | TimeoutException | InterruptedException | StashReportExtractionException | IOException e) {
       throw new StashClientException(e);
-    } finally{
-      httpClient.close();
+    }
+  
+    return result;
+  } 
+  
+  /**
+   * Paths of the files added or modified by the pull-request, relative to the repository root.
+   */
+  public List<String> getPullRequestChanges(String project, String repository, String pullRequestId)
+      throws StashClientException {
+    List<String> result = new ArrayList<>();
+    
+    AsyncHttpClient httpClient = getHttpClient();
+    
+    long start = 0;
+    boolean isLastPage = false; 
+    
+    while (! isLastPage){
+      try {
+        // page start is formatted as a String: MessageFormat would add grouping separators to large numbers
+        String request = MessageFormat.format(CHANGES_PULL_REQUEST_API, baseUrl + REST_API, project, repository, pullRequestId, String.valueOf(start));
+        BoundRequestBuilder requestBuilder = httpClient.prepareGet(request);
+        
+        Response response = executeRequest(requestBuilder, true);
+        int responseCode = response.getStatusCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+          String responseMessage = response.getStatusText();
+          throw new StashClientException(MessageFormat.format(CHANGES_GET_ERROR_MESSAGE, repository, pullRequestId, responseCode, responseMessage));
+        } else{
+          StashChangePage page = StashCollector.extractChangePage(response.getResponseBody());
+          for (String path : page.getPaths()) {
+            result.add(strings.get(path));
+          }
+            
+          // Stash pagination: check if you get all files changed by the pull-request
+          isLastPage = page.isLastPage();
+          start = page.getNextPageStart();
+        }
+      } catch (ExecutionException | TimeoutException | InterruptedException | StashReportExtractionException | IOException e) {
+        throw new StashClientException(e);
+      }
     }
   
     return result;
@@ -177,6 +264,25 @@ public class StashClient {
   
   public void postCommentLineOnPullRequest(String project, String repository, String pullRequestId, String message, String path, long line, String type)
       throws StashClientException {
+    postCommentLine(project, repository, pullRequestId, message, path, line, type);
+  }
+  
+  /**
+   * Post a line comment and get it back as created by Stash, with its id and version.
+   */
+  public StashComment createCommentLineOnPullRequest(String project, String repository, String pullRequestId, String message, String path, long line, String type)
+      throws StashClientException {
+    Response response = postCommentLine(project, repository, pullRequestId, message, path, line, type);
+    
+    try {
+      return StashCollector.extractComment(response.getResponseBody(), users, strings);
+    } catch (StashReportExtractionException | IOException e) {
+      throw new StashClientException(e);
+    }
+  }
+  
+  private Response postCommentLine(String project, String repository, String pullRequestId, String message, String path, long line, String type)
+      throws StashClientException {
 
     String request = MessageFormat.format(COMMENTS_PULL_REQUEST_API, baseUrl + REST_API, project, repository,
         pullRequestId);
@@ -197,71 +303,76 @@ public class StashClient {
     json.put("text", message);
     json.put("anchor", anchor);
 
-    AsyncHttpClient httpClient = createHttpClient();
+    AsyncHttpClient httpClient = getHttpClient();
     BoundRequestBuilder requestBuilder = httpClient.preparePost(request);
     requestBuilder.setBody(json.toString());
     
     try {
-      Response response = executeRequest(requestBuilder);
+      Response response = executeRequest(requestBuilder, false);
       int responseCode = response.getStatusCode();
       if (responseCode != HttpURLConnection.HTTP_CREATED) {
         String responseMessage = response.getStatusText();
         throw new StashClientException(MessageFormat.format(COMMENT_POST_ERROR_MESSAGE, repository, pullRequestId, responseCode, responseMessage));
       }
+      return response;
     } catch (ExecutionException | TimeoutException | IOException | InterruptedException e) {
       throw new StashClientException(e);
-    } finally{
-      httpClient.close();
     }
   }
   
+  /**
+   * Users already met during the analysis are not fetched again.
+   */
   public StashUser getUser(String userSlug)
       throws StashClientException {
     
-    AsyncHttpClient httpClient = createHttpClient();
+    StashUser knownUser = users.getUser(userSlug);
+    if (knownUser != null) {
+      return knownUser;
+    }
+    
+    AsyncHttpClient httpClient = getHttpClient();
     
     try {
       String request = MessageFormat.format(USER_API, baseUrl + REST_API, userSlug);
       BoundRequestBuilder requestBuilder = httpClient.prepareGet(request);
+      StashResponseCache.Entry cachedResponse = getCachedResponse(request, requestBuilder);
 
-      Response response = executeRequest(requestBuilder);
+      Response response = executeRequest(requestBuilder, true);
       int responseCode = response.getStatusCode();
-      if (responseCode != HttpURLConnection.HTTP_OK) {
+      if ((responseCode != HttpURLConnection.HTTP_OK) && ! isNotModified(response, cachedResponse)) {
         String responseMessage = response.getStatusText();
         throw new StashClientException(MessageFormat.format(USER_GET_ERROR_MESSAGE, userSlug, responseCode, responseMessage));
       } else {
-        String jsonUser = response.getResponseBody();
-        return StashCollector.extractUser(jsonUser);
+        String jsonUser = getResponseBody(request, response, cachedResponse);
+        return StashCollector.extractUser(jsonUser, users);
       }
     } catch (ExecutionException | TimeoutException | InterruptedException | StashReportExtractionException | IOException e) {
       throw new StashClientException(e);
-    } finally {
-      httpClient.close();
     }
   }
   
   public StashPullRequest getPullRequest(String project, String repository, String pullRequestId)
       throws StashClientException {
     
-    AsyncHttpClient httpClient = createHttpClient();
+    AsyncHttpClient httpClient = getHttpClient();
     
     try {
       String request = MessageFormat.format(PULL_REQUEST_API, baseUrl + REST_API, project, repository, pullRequestId);
       BoundRequestBuilder requestBuilder = httpClient.prepareGet(request);
+      StashResponseCache.Entry cachedResponse = getCachedResponse(request, requestBuilder);
 
-      Response response = executeRequest(requestBuilder);
+      Response response = executeRequest(requestBuilder, true);
       int responseCode = response.getStatusCode();
-      if (responseCode != HttpURLConnection.HTTP_OK) {
+      if ((responseCode != HttpURLConnection.HTTP_OK) && ! isNotModified(response, cachedResponse)) {
         String responseMessage = response.getStatusText();
         throw new StashClientException(MessageFormat.format(PULL_REQUEST_GET_ERROR_MESSAGE, repository, pullRequestId, responseCode, responseMessage));
       } else {
-        String jsonPullRequest = response.getResponseBody();
-        return StashCollector.extractPullRequest(project, repository, pullRequestId, jsonPullRequest);
+        String jsonPullRequest = getResponseBody(request, response, cachedResponse);
+        return StashCollector.extractPullRequest(project, repository, pullRequestId, jsonPullRequest, users);
       }
     } catch (ExecutionException | TimeoutException | InterruptedException | StashReportExtractionException | IOException e) {
       throw new StashClientException(e);
-    } finally {
-      httpClient.close();
     }
   }
   
@@ -286,12 +397,12 @@ public class StashClient {
     json.put("id", pullRequestId);
     json.put("version", pullRequestVersion);
 
-    AsyncHttpClient httpClient = createHttpClient();
+    AsyncHttpClient httpClient = getHttpClient();
     BoundRequestBuilder requestBuilder = httpClient.preparePut(request);
     requestBuilder.setBody(json.toString());
 
     try {
-      Response response = executeRequest(requestBuilder);
+      Response response = executeRequest(requestBuilder, true);
       int responseCode = response.getStatusCode();
       if (responseCode != HttpURLConnection.HTTP_OK) {
         String responseMessage = response.getStatusText();
@@ -299,19 +410,17 @@ public class StashClient {
       }
     } catch (ExecutionException | TimeoutException | InterruptedException | IOException e) {
       throw new StashClientException(e);
-    } finally {
-      httpClient.close();
     }
   }
 
   public void approvePullRequest(String project, String repository, String pullRequestId) throws StashClientException {
     String request = MessageFormat.format(APPROVAL_PULL_REQUEST_API, baseUrl + REST_API, project, repository, pullRequestId);
     
-    AsyncHttpClient httpClient = createHttpClient();
+    AsyncHttpClient httpClient = getHttpClient();
     BoundRequestBuilder requestBuilder = httpClient.preparePost(request);
     
     try {
-      Response response = executeRequest(requestBuilder);
+      Response response = executeRequest(requestBuilder, true);
       int responseCode = response.getStatusCode();
       if (responseCode != HttpURLConnection.HTTP_OK) {
         String responseMessage = response.getStatusText();
@@ -319,19 +428,17 @@ public class StashClient {
       }
     } catch (ExecutionException | TimeoutException | InterruptedException | IOException e) {
       throw new StashClientException(e);
-    } finally{
-      httpClient.close();
     }
   }
   
   public void resetPullRequestApproval(String project, String repository, String pullRequestId) throws StashClientException {
     String request = MessageFormat.format(APPROVAL_PULL_REQUEST_API, baseUrl + REST_API, project, repository, pullRequestId);
     
-    AsyncHttpClient httpClient = createHttpClient();
+    AsyncHttpClient httpClient = getHttpClient();
     BoundRequestBuilder requestBuilder = httpClient.prepareDelete(request);
     
     try {
-      Response response = executeRequest(requestBuilder);
+      Response response = executeRequest(requestBuilder, true);
       int responseCode = response.getStatusCode();
       if (responseCode != HttpURLConnection.HTTP_OK) {
         String responseMessage = response.getStatusText();
@@ -339,17 +446,105 @@ public class StashClient {
       }
     } catch (ExecutionException | TimeoutException | InterruptedException | IOException e) {
       throw new StashClientException(e);
-    } finally{
-      httpClient.close();
     }
   }
 
   
-  Response executeRequest(final BoundRequestBuilder requestBuilder) throws InterruptedException, IOException,
+  /**
+   * Cached response to the GET request if any, in which case the request is made conditional.
+   */
+  private StashResponseCache.Entry getCachedResponse(String request, BoundRequestBuilder requestBuilder) {
+    StashResponseCache.Entry result = null;
+    
+    if (responseCache != null) {
+      result = responseCache.get(getCacheKey(request));
+      if (result != null) {
+        if (result.getETag() != null) {
+          requestBuilder.addHeader("If-None-Match", result.getETag());
+        }
+        if (result.getLastModified() != null) {
+          requestBuilder.addHeader("If-Modified-Since", result.getLastModified());
+        }
+      }
+    }
+    
+    return result;
+  }
+  
+  private static boolean isNotModified(Response response, StashResponseCache.Entry cachedResponse) {
+    return (cachedResponse != null) && (response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED);
+  }
+  
+  /**
+   * Body of a successful GET response: the cached one if not modified, the received one otherwise.
+   */
+  private String getResponseBody(String request, Response response, StashResponseCache.Entry cachedResponse) throws IOException {
+    if (isNotModified(response, cachedResponse)) {
+      try (InputStream body = cachedResponse.openBody()) {
+        return IOUtils.toString(body, StandardCharsets.UTF_8);
+      }
+    }
+    
+    cacheResponse(request, response);
+    return response.getResponseBody();
+  }
+  
+  private InputStream getResponseBodyAsStream(String request, Response response, StashResponseCache.Entry cachedResponse) throws IOException {
+    if (isNotModified(response, cachedResponse)) {
+      return cachedResponse.openBody();
+    }
+    
+    cacheResponse(request, response);
+    return response.getResponseBodyAsStream();
+  }
+  
+  /**
+   * Cache the received response, if it can be revalidated by a conditional request.
+   */
+  private void cacheResponse(String request, Response response) throws IOException {
+    if (responseCache != null) {
+      String eTag = response.getHeader("ETag");
+      String lastModified = response.getHeader("Last-Modified");
+      if ((eTag != null) || (lastModified != null)) {
+        // body stream of the response can only be read once
+        responseCache.put(getCacheKey(request), eTag, lastModified, new ByteArrayInputStream(response.getResponseBodyAsBytes()));
+      }
+    }
+  }
+  
+  /**
+   * Responses depend on the permissions of the user: the cache is shared between users, not their responses.
+   */
+  private String getCacheKey(String request) {
+    return credentials.getLogin() + " " + request;
+  }
+  
+  /**
+   * Send the request, within the rate limit if any, and retry it as long as Stash rejects it and the retry policy allows.
+   * @param idempotent true if sending the request several times has the same effect as sending it once
+   */
+  Response executeRequest(final BoundRequestBuilder requestBuilder, boolean idempotent) throws InterruptedException, IOException,
       ExecutionException, TimeoutException {
     addAuthorization(requestBuilder);
     requestBuilder.addHeader("Content-Type", "application/json");
-    return requestBuilder.execute().get(stashTimeout, TimeUnit.MILLISECONDS);
+    
+    int retries = 0;
+    while (true) {
+      if (rateLimiter != null) {
+        rateLimiter.acquire();
+      }
+      
+      Response response = requestBuilder.execute().get(stashTimeout, TimeUnit.MILLISECONDS);
+      int responseCode = response.getStatusCode();
+      long delay = retryPolicy.getRetryDelay(retries, responseCode, response.getHeader(RETRY_AFTER_HEADER), idempotent);
+      if (delay < 0) {
+        return response;
+      }
+      
+      retries++;
+      LOGGER.debug("Stash rejected request with {}: retry {}/{} in {} ms", responseCode, retries, retryPolicy.getMaxRetries(), delay);
+      TimeUnit.MILLISECONDS.sleep(delay);
+    }
   }
 
   void addAuthorization(final BoundRequestBuilder requestBuilder) {
@@ -358,16 +553,119 @@ public class StashClient {
     requestBuilder.setRealm(realm);
   }
   
+  /**
+   * Release the connection pool shared by all the requests of this client.
+   */
+  @Override
+  public synchronized void close() {
+    if (httpClient != null) {
+      httpClient.close();
+      httpClient = null;
+    }
+  }
+
+  /**
+   * Get the HTTP client shared by all the requests sent to Stash,
+   * created on first use to keep connections alive during the whole analysis.
+   */
+  synchronized AsyncHttpClient getHttpClient() {
+    if (httpClient == null) {
+      httpClient = createHttpClient();
+    }
+    
+    return httpClient;
+  }
+  
   AsyncHttpClient createHttpClient() {
-	if (acceptAnyCertificate)
-	{
-	  Builder builder = new AsyncHttpClientConfig.Builder();
+    AsyncHttpClientConfig.Builder builder = new AsyncHttpClientConfig.Builder();
+    builder.setAllowPoolingConnections(true);
+    builder.setAllowPoolingSslConnections(true);
+    
+    if (maxConnectionsPerHost > 0) {
+      builder.setMaxConnectionsPerHost(maxConnectionsPerHost);
+    }
+    
+    if (acceptAnyCertificate) {
       builder.setAcceptAnyCertificate(true);
-      return new AsyncHttpClient(builder.build());
-	}
-	else
-	{
-      return new AsyncHttpClient();
-	}
+    }
+    
+    return new AsyncHttpClient(builder.build());
+  }
+
+  public static final class Builder {
+
+    private final String url;
+    private final StashCredentials credentials;
+    private final int stashTimeout;
+    private boolean acceptAnyCertificate;
+    private int maxConnectionsPerHost;
+    private int commentPageSize;
+    private StashResponseCache responseCache;
+    private StringDictionary strings = new StringDictionary();
+    private StashRateLimiter rateLimiter;
+    private StashRetryPolicy retryPolicy = StashRetryPolicy.NO_RETRY;
+
+    private Builder(String url, StashCredentials credentials, int stashTimeout) {
+      this.url = url;
+      this.credentials = credentials;
+      this.stashTimeout = stashTimeout;
+    }
+
+    public Builder acceptAnyCertificate(boolean acceptAnyCertificate) {
+      this.acceptAnyCertificate = acceptAnyCertificate;
+      return this;
+    }
+
+    /**
+     * @param maxConnectionsPerHost upper bound of pooled connections to Stash, no limit if lower or equal to 0
+     */
+    public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+      this.maxConnectionsPerHost = maxConnectionsPerHost;
+      return this;
+    }
+
+    /**
+     * @param commentPageSize number of comments requested per page, Stash default page size if lower or equal to 0
+     */
+    public Builder commentPageSize(int commentPageSize) {
+      this.commentPageSize = commentPageSize;
+      return this;
+    }
+
+    /**
+     * @param responseCache cache of the pull-request, user and diff responses, null to always download them
+     */
+    public Builder responseCache(StashResponseCache responseCache) {
+      this.responseCache = responseCache;
+      return this;
+    }
+
+    /**
+     * @param strings strings of the analysis, paths and messages of the comments are canonicalized against
+     */
+    public Builder strings(StringDictionary strings) {
+      this.strings = strings;
+      return this;
+    }
+
+    /**
+     * @param requestsPerSecond maximum rate of the requests sent to Stash by the client, no limit if lower or equal to 0
+     */
+    public Builder rateLimit(double requestsPerSecond) {
+      this.rateLimiter = (requestsPerSecond > 0) ? new StashRateLimiter(requestsPerSecond) : null;
+      return this;
+    }
+
+    /**
+     * @param retryPolicy retry of the requests rejected by Stash
+     */
+    public Builder retryPolicy(StashRetryPolicy retryPolicy) {
+      this.retryPolicy = retryPolicy;
+      return this;
+    }
+
+    public StashClient build() {
+      return new StashClient(this);
+    }
   }
 }
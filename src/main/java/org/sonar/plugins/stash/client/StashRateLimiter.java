@@ -0,0 +1,61 @@
+package org.sonar.plugins.stash.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket bounding the rate of the requests sent to a Stash instance.
+ *
+ * The bucket holds up to one second worth of requests, and is refilled at the configured rate. A request which
+ * finds the bucket empty reserves the next token and waits for it: concurrent requests are spread over time
+ * in their arrival order. Each client has its own limiter: concurrent requests of a post job draw from the same bucket,
+ * and nothing is kept from one analysis to the next.
+ */
+public class StashRateLimiter {
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final double requestsPerSecond;
+  private final double capacity;
+
+  private double tokens;
+  private long lastRefill;
+
+  StashRateLimiter(double requestsPerSecond) {
+    this.requestsPerSecond = requestsPerSecond;
+    this.capacity = Math.max(1, requestsPerSecond);
+    this.tokens = capacity;
+    this.lastRefill = nanoTime();
+  }
+
+  public double getRequestsPerSecond() {
+    return requestsPerSecond;
+  }
+
+  /**
+   * Wait until a request can be sent.
+   */
+  public void acquire() throws InterruptedException {
+    long waitNanos;
+    synchronized (this) {
+      long now = nanoTime();
+      tokens = Math.min(capacity, tokens + ((now - lastRefill) * requestsPerSecond / NANOS_PER_SECOND));
+      lastRefill = now;
+
+      // token is reserved even if not available yet: next requests wait for the following ones
+      tokens--;
+      waitNanos = (tokens >= 0) ? 0 : (long) (-tokens * NANOS_PER_SECOND / requestsPerSecond);
+    }
+
+    if (waitNanos > 0) {
+      sleep(waitNanos);
+    }
+  }
+
+  long nanoTime() {
+    return System.nanoTime();
+  }
+
+  void sleep(long nanos) throws InterruptedException {
+    TimeUnit.NANOSECONDS.sleep(nanos);
+  }
+}
@@ -0,0 +1,267 @@
+package org.sonar.plugins.stash.client;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of the responses to Stash GET requests, revalidated with conditional requests.
+ *
+ * Each entry keeps the validators (ETag, Last-Modified) and the body of the last response received for a request.
+ * When the total size of the cached bodies exceeds the configured bound, least recently used entries are evicted first.
+ * Use order survives from one analysis to the next through the last modification date of the body files.
+ */
+public class StashResponseCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(StashResponseCache.class);
+
+  private static final String BODY_EXTENSION = ".body";
+  private static final String HEADERS_EXTENSION = ".headers";
+
+  private static final String KEY_HEADER = "key";
+  private static final String ETAG_HEADER = "ETag";
+  private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
+  private final File directory;
+  private final long maxSize;
+
+  // entries by file name, in access order
+  private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long size;
+  private boolean loaded;
+
+  /**
+   * @param maxSize upper bound, in bytes, of the total size of the cached bodies
+   */
+  public StashResponseCache(File directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Cached response to the given request, null if there is none.
+   */
+  public synchronized Entry get(String key) {
+    load();
+
+    Entry result = entries.get(getFileName(key));
+    if ((result != null) && ! key.equals(result.key)) {
+      result = null;
+    }
+
+    if (result != null) {
+      // keep track of the use order for the next analyses
+      if (! result.body.setLastModified(System.currentTimeMillis())) {
+        LOGGER.debug("Unable to update the use date of cached response {}", result.body);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Cache the response to the given request, replacing the previous one, then evict least recently used entries if needed.
+   * A response larger than the cache is not kept.
+   */
+  public synchronized void put(String key, String eTag, String lastModified, InputStream body) throws IOException {
+    load();
+
+    String fileName = getFileName(key);
+    remove(fileName);
+
+    if (! directory.isDirectory() && ! directory.mkdirs()) {
+      throw new IOException("Unable to create directory " + directory);
+    }
+
+    File bodyFile = new File(directory, fileName + BODY_EXTENSION);
+    File tempFile = File.createTempFile(fileName, BODY_EXTENSION, directory);
+    try {
+      try (OutputStream output = new FileOutputStream(tempFile)) {
+        IOUtils.copy(body, output);
+      }
+      Files.move(tempFile.toPath(), bodyFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tempFile.toPath());
+    }
+
+    Properties headers = new Properties();
+    headers.setProperty(KEY_HEADER, key);
+    if (eTag != null) {
+      headers.setProperty(ETAG_HEADER, eTag);
+    }
+    if (lastModified != null) {
+      headers.setProperty(LAST_MODIFIED_HEADER, lastModified);
+    }
+    try (OutputStream output = new FileOutputStream(new File(directory, fileName + HEADERS_EXTENSION))) {
+      headers.store(output, null);
+    }
+
+    Entry entry = new Entry(key, eTag, lastModified, bodyFile);
+    entries.put(fileName, entry);
+    size += entry.length;
+
+    evict();
+  }
+
+  /**
+   * Total size, in bytes, of the cached bodies.
+   */
+  public synchronized long getSize() {
+    load();
+    return size;
+  }
+
+  public synchronized int countEntries() {
+    load();
+    return entries.size();
+  }
+
+  /**
+   * Index the entries of previous analyses, least recently used first.
+   */
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+
+    File[] headerFiles = directory.listFiles();
+    if (headerFiles == null) {
+      return;
+    }
+
+    List<Entry> loadedEntries = new ArrayList<>();
+    for (File headerFile : headerFiles) {
+      String name = headerFile.getName();
+      if (name.endsWith(HEADERS_EXTENSION)) {
+        File bodyFile = new File(directory, name.substring(0, name.length() - HEADERS_EXTENSION.length()) + BODY_EXTENSION);
+
+        Properties headers = new Properties();
+        try (InputStream input = new FileInputStream(headerFile)) {
+          headers.load(input);
+        } catch (IOException e) {
+          LOGGER.debug("Unable to read cached response " + headerFile, e);
+          continue;
+        }
+
+        if (bodyFile.isFile() && (headers.getProperty(KEY_HEADER) != null)) {
+          loadedEntries.add(new Entry(headers.getProperty(KEY_HEADER), headers.getProperty(ETAG_HEADER),
+              headers.getProperty(LAST_MODIFIED_HEADER), bodyFile));
+        }
+      }
+    }
+
+    Collections.sort(loadedEntries, new Comparator<Entry>() {
+      @Override
+      public int compare(Entry entry1, Entry entry2) {
+        return Long.compare(entry1.body.lastModified(), entry2.body.lastModified());
+      }
+    });
+
+    for (Entry entry : loadedEntries) {
+      entries.put(getFileName(entry.key), entry);
+      size += entry.length;
+    }
+
+    evict();
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while ((size > maxSize) && iterator.hasNext()) {
+      Map.Entry<String, Entry> eldest = iterator.next();
+      iterator.remove();
+      size -= eldest.getValue().length;
+      deleteFiles(eldest.getKey());
+    }
+  }
+
+  private void remove(String fileName) {
+    Entry entry = entries.remove(fileName);
+    if (entry != null) {
+      size -= entry.length;
+    }
+    deleteFiles(fileName);
+  }
+
+  private void deleteFiles(String fileName) {
+    try {
+      Files.deleteIfExists(new File(directory, fileName + HEADERS_EXTENSION).toPath());
+      Files.deleteIfExists(new File(directory, fileName + BODY_EXTENSION).toPath());
+    } catch (IOException e) {
+      LOGGER.debug("Unable to delete cached response " + fileName, e);
+    }
+  }
+
+  /**
+   * SHA-1 of the key, in hexadecimal.
+   */
+  private static String getFileName(String key) {
+    byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform supports SHA-1
+      throw new IllegalStateException(e);
+    }
+
+    StringBuilder result = new StringBuilder(digest.length * 2);
+    for (byte b : digest) {
+      result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+
+    return result.toString();
+  }
+
+  /**
+   * Cached response: validators to send with the conditional request, and body to reuse if not modified.
+   */
+  public static class Entry {
+
+    private final String key;
+    private final String eTag;
+    private final String lastModified;
+    private final File body;
+    private final long length;
+
+    Entry(String key, String eTag, String lastModified, File body) {
+      this.key = key;
+      this.eTag = eTag;
+      this.lastModified = lastModified;
+      this.body = body;
+      this.length = body.length();
+    }
+
+    public String getETag() {
+      return eTag;
+    }
+
+    public String getLastModified() {
+      return lastModified;
+    }
+
+    public InputStream openBody() throws IOException {
+      return new FileInputStream(body);
+    }
+  }
+}
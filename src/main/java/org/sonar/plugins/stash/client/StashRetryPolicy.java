@@ -0,0 +1,109 @@
+package org.sonar.plugins.stash.client;
+
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Retry of the requests Stash rejects because it is overloaded or throttling the client.
+ *
+ * Rejected requests are retried after an exponential backoff with jitter, unless Stash tells how long to wait
+ * through the Retry-After header. 429 (Too Many Requests) responses are always retried: Stash has not processed
+ * the request. 503 (Service Unavailable) responses are only retried for idempotent requests.
+ */
+public class StashRetryPolicy {
+
+  public static final StashRetryPolicy NO_RETRY = new StashRetryPolicy(0, 0, 0);
+
+  static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+  private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+  // shifting further would overflow, whatever the initial backoff
+  private static final int MAX_BACKOFF_SHIFT = 30;
+
+  private final int maxRetries;
+  private final long initialBackoff;
+  private final long maxBackoff;
+  private final Random random = new Random();
+
+  /**
+   * @param maxRetries maximum number of retries of a request, no retry if lower or equal to 0
+   * @param initialBackoff delay before the first retry (in ms), doubled on each retry
+   * @param maxBackoff upper bound of the delay before a retry (in ms): requests Stash asks to delay longer are not retried
+   */
+  public StashRetryPolicy(int maxRetries, long initialBackoff, long maxBackoff) {
+    this.maxRetries = maxRetries;
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff = maxBackoff;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Delay before retrying a request which has already been retried the given number of times.
+   * @param retryAfter value of the Retry-After header of the response, null if none
+   * @return delay in ms, -1 if the request must not be retried
+   */
+  public long getRetryDelay(int retries, int statusCode, String retryAfter, boolean idempotent) {
+    if ((retries >= maxRetries) || ! isRetryable(statusCode, idempotent)) {
+      return -1;
+    }
+
+    long result = parseRetryAfter(retryAfter);
+    if (result < 0) {
+      result = getBackoff(retries);
+    } else if (result > maxBackoff) {
+      result = -1;
+    }
+
+    return result;
+  }
+
+  private static boolean isRetryable(int statusCode, boolean idempotent) {
+    return (statusCode == HTTP_TOO_MANY_REQUESTS) || (idempotent && (statusCode == HttpURLConnection.HTTP_UNAVAILABLE));
+  }
+
+  /**
+   * Exponential backoff with equal jitter: between half and the whole of the backoff, so that clients
+   * rejected together do not come back together.
+   */
+  long getBackoff(int retries) {
+    long backoff = Math.min(maxBackoff, initialBackoff << Math.min(retries, MAX_BACKOFF_SHIFT));
+    if (backoff <= 1) {
+      return Math.max(backoff, 0);
+    }
+
+    long half = backoff / 2;
+    return half + (long) (random.nextDouble() * (backoff - half));
+  }
+
+  /**
+   * Delay given by a Retry-After header, as a number of seconds or an HTTP date.
+   * @return delay in ms, -1 if the header is missing or cannot be read
+   */
+  static long parseRetryAfter(String retryAfter) {
+    if (retryAfter == null) {
+      return -1;
+    }
+
+    String value = retryAfter.trim();
+    try {
+      return Math.max(0, Long.parseLong(value) * 1000);
+    } catch (NumberFormatException e) {
+      // not a number of seconds: should be an HTTP date
+    }
+
+    try {
+      Date date = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US).parse(value);
+      return Math.max(0, date.getTime() - System.currentTimeMillis());
+    } catch (ParseException e) {
+      return -1;
+    }
+  }
+}
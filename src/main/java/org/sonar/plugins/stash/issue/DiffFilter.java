@@ -0,0 +1,12 @@
+package org.sonar.plugins.stash.issue;
+
+/**
+ * Membership of the lines of the analysed files in the diff view of a pull-request.
+ */
+public interface DiffFilter {
+
+  /**
+   * Check if the given line of the file belongs to the diff view, line 0 standing for the file itself.
+   */
+  boolean contains(String path, long line);
+}
@@ -0,0 +1,42 @@
+package org.sonar.plugins.stash.issue;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Markdown of the issues of an analysis, printed once per issue.
+ *
+ * The markdown of an issue is the text of its comment: it is needed to check if the issue is already commented,
+ * to post the comment, and again in the analysis overview for the first issue of each rule.
+ * A cache lives as long as the post job which creates it.
+ */
+public class IssueMarkdownCache {
+
+  private final String sonarQubeURL;
+
+  // issues do not override equals: they are their own identity
+  private final Map<SonarQubeIssue, String> markdowns = new IdentityHashMap<>();
+
+  public IssueMarkdownCache(String sonarQubeURL) {
+    this.sonarQubeURL = sonarQubeURL;
+  }
+
+  public String getSonarQubeURL() {
+    return sonarQubeURL;
+  }
+
+  public synchronized String get(SonarQubeIssue issue) {
+    String result = markdowns.get(issue);
+
+    if (result == null) {
+      result = MarkdownPrinter.printIssueMarkdown(issue, sonarQubeURL);
+      markdowns.put(issue, result);
+    }
+
+    return result;
+  }
+
+  public synchronized int size() {
+    return markdowns.size();
+  }
+}
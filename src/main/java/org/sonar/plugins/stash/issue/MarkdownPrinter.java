@@ -10,13 +10,16 @@ public final class MarkdownPrinter {
   private static final String NEW_LINE = "\n";
   private static final String CODING_RULES_RULE_KEY = "coding_rules#rule_key=";
   
+  private static final String[] SEVERITIES = {Severity.BLOCKER, Severity.CRITICAL, Severity.MAJOR, Severity.MINOR, Severity.INFO};
+  
   private MarkdownPrinter(){
     // DO NOTHING
   }
   
   public static String printIssueMarkdown(SonarQubeIssue issue, String sonarQubeURL) {
     StringBuilder sb = new StringBuilder();
-    sb.append(printSeverityMarkdown(issue.getSeverity())).append(issue.getMessage()).append(" [[").append(issue.getRule())
+    appendSeverityMarkdown(issue.getSeverity(), sb);
+    sb.append(issue.getMessage()).append(" [[").append(issue.getRule())
         .append("]").append("(").append(sonarQubeURL).append("/").append(CODING_RULES_RULE_KEY).append(issue.getRule()).append(")]");
 
     return sb.toString();
@@ -24,38 +27,56 @@ public final class MarkdownPrinter {
   
   public static String printSeverityMarkdown(String severity) {
     StringBuilder sb = new StringBuilder();
-    sb.append("*").append(StringUtils.upperCase(severity)).append("*").append(" - ");
+    appendSeverityMarkdown(severity, sb);
 
     return sb.toString();
   }
 
+  private static void appendSeverityMarkdown(String severity, StringBuilder sb) {
+    sb.append("*").append(StringUtils.upperCase(severity)).append("*").append(" - ");
+  }
+
   public static String printIssueNumberBySeverityMarkdown(SonarQubeIssuesReport report, String severity) {
     StringBuilder sb = new StringBuilder();
-    sb.append("| ").append(severity).append(" | ").append(report.countIssues(severity)).append(" |").append(NEW_LINE);
+    appendIssueNumberBySeverityMarkdown(report, severity, sb);
 
     return sb.toString();
   }
 
+  private static void appendIssueNumberBySeverityMarkdown(SonarQubeIssuesReport report, String severity, StringBuilder sb) {
+    sb.append("| ").append(severity).append(" | ").append(report.countIssues(severity)).append(" |").append(NEW_LINE);
+  }
+
   public static String printIssueListBySeverityMarkdown(SonarQubeIssuesReport report, String sonarQubeURL, String severity) {
     StringBuilder sb = new StringBuilder();
+    appendIssueListBySeverityMarkdown(report, new IssueMarkdownCache(sonarQubeURL), severity, sb);
+
+    return sb.toString();
+  }
 
+  private static void appendIssueListBySeverityMarkdown(SonarQubeIssuesReport report, IssueMarkdownCache issueMarkdowns, String severity,
+      StringBuilder sb) {
     Map<String, SonarQubeIssue> rules = report.getUniqueRulesBySeverity(severity);
-    for (String rule : rules.keySet()) {
-      SonarQubeIssue issue = rules.get(rule);
-      sb.append("| ").append(MarkdownPrinter.printIssueMarkdown(issue, sonarQubeURL)).append(" |").append(NEW_LINE);
+    for (SonarQubeIssue issue : rules.values()) {
+      sb.append("| ").append(issueMarkdowns.get(issue)).append(" |").append(NEW_LINE);
     }
-
-    return sb.toString();
   }
 
   /**
    * Get issue report.
    */
   public static String printReportMarkdown(SonarQubeIssuesReport report, String sonarQubeURL, int issueThreshold) {
+    return printReportMarkdown(report, new IssueMarkdownCache(sonarQubeURL), issueThreshold);
+  }
+
+  /**
+   * Get issue report, reusing the markdown of the issues already printed.
+   */
+  public static String printReportMarkdown(SonarQubeIssuesReport report, IssueMarkdownCache issueMarkdowns, int issueThreshold) {
     StringBuilder sb = new StringBuilder("## SonarQube analysis Overview");
     sb.append(NEW_LINE);
 
-    if ((report.getIssues() == null) || (report.getIssues().isEmpty())) {
+    if (report.countIssues() == 0) {
       sb.append("### No new issues detected!");
     } else {
       
@@ -68,21 +89,17 @@ public final class MarkdownPrinter {
       // Number of issue per severity
       sb.append("| Total New Issues | ").append(report.countIssues()).append(" |").append(NEW_LINE);
       sb.append("|-----------------|------|").append(NEW_LINE);
-      sb.append(printIssueNumberBySeverityMarkdown(report, Severity.BLOCKER));
-      sb.append(printIssueNumberBySeverityMarkdown(report, Severity.CRITICAL));
-      sb.append(printIssueNumberBySeverityMarkdown(report, Severity.MAJOR));
-      sb.append(printIssueNumberBySeverityMarkdown(report, Severity.MINOR));
-      sb.append(printIssueNumberBySeverityMarkdown(report, Severity.INFO));
+      for (String severity : SEVERITIES) {
+        appendIssueNumberBySeverityMarkdown(report, severity, sb);
+      }
       sb.append(NEW_LINE).append(NEW_LINE);
 
       // Issue list
       sb.append("| Issues list |").append(NEW_LINE);
       sb.append("|------------|").append(NEW_LINE);
-      sb.append(printIssueListBySeverityMarkdown(report, sonarQubeURL, Severity.BLOCKER));
-      sb.append(printIssueListBySeverityMarkdown(report, sonarQubeURL, Severity.CRITICAL));
-      sb.append(printIssueListBySeverityMarkdown(report, sonarQubeURL, Severity.MAJOR));
-      sb.append(printIssueListBySeverityMarkdown(report, sonarQubeURL, Severity.MINOR));
-      sb.append(printIssueListBySeverityMarkdown(report, sonarQubeURL, Severity.INFO));
+      for (String severity : SEVERITIES) {
+        appendIssueListBySeverityMarkdown(report, issueMarkdowns, severity, sb);
+      }
       
     }
 
@@ -2,27 +2,79 @@ package org.sonar.plugins.stash.issue;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 
 public class SonarQubeIssuesReport {
-  
+
   private final List<SonarQubeIssue> issues;
 
+  // issues out of the pull-request diff: only counted, they are never commented
+  private int offDiffCount;
+
+  // issue counts and rules of each severity, maintained on each addition: overview does not scan the issues
+  private final Map<String, SeverityIssues> issuesBySeverity;
+
   public SonarQubeIssuesReport() {
     this.issues = new ArrayList<>();
+    this.issuesBySeverity = new HashMap<>();
   }
-  
+
   public void add(SonarQubeIssue issue) {
     issues.add(issue);
+    getSeverityIssues(issue.getSeverity()).add(issue.getRule(), issue);
+  }
+
+  /**
+   * Count an issue out of the pull-request diff, keeping it only to stand for its rule in the overview if the rule has no issue yet.
+   * Off diff issues are not part of the issue list.
+   */
+  public void addOffDiff(SonarQubeIssue issue) {
+    offDiffCount++;
+    getSeverityIssues(issue.getSeverity()).add(issue.getRule(), issue);
+  }
+
+  /**
+   * Count an issue out of the pull-request diff, without building it, if its rule already has an issue to stand for it in the overview.
+   * @return false if the rule has no issue yet: nothing is counted, and the issue has to be added with addOffDiff
+   */
+  public boolean countOffDiff(String severity, String rule) {
+    boolean result = false;
+
+    if (countIssues(severity, rule) > 0) {
+      offDiffCount++;
+      getSeverityIssues(severity).add(rule, null);
+      result = true;
+    }
+
+    return result;
   }
 
+  private SeverityIssues getSeverityIssues(String severity) {
+    SeverityIssues result = issuesBySeverity.get(severity);
+    if (result == null) {
+      result = new SeverityIssues();
+      issuesBySeverity.put(severity, result);
+    }
+
+    return result;
+  }
+
+  /**
+   * Issues on the pull-request diff, or all the issues if the report was not built against a diff.
+   * Off diff issues are not part of the list: its size is countIssues() - countOffDiffIssues().
+   */
   public List<SonarQubeIssue> getIssues(){
     return issues;
   }
-  
+
+  /**
+   * Issues of the given severity on the pull-request diff.
+   * Off diff issues are not part of the list, whereas countIssues(severity) counts them.
+   */
   public List<SonarQubeIssue> getIssuesBySeverity(String severity) {
     List<SonarQubeIssue> result = new ArrayList<>();
     for (SonarQubeIssue issue : issues) {
@@ -30,29 +82,98 @@ public class SonarQubeIssuesReport {
         result.add(issue);
       }
     }
-    
+
     return result;
   }
 
+  /**
+   * Number of issues, off diff issues included.
+   */
   public int countIssues() {
-    return issues.size();
+    return issues.size() + offDiffCount;
   }
 
+  /**
+   * Number of issues out of the pull-request diff, counted but not part of the issue lists.
+   */
+  public int countOffDiffIssues() {
+    return offDiffCount;
+  }
+
+  /**
+   * Number of issues of the given severity, off diff issues included.
+   */
   public int countIssues(String severity) {
-    return getIssuesBySeverity(severity).size();
+    SeverityIssues severityIssues = issuesBySeverity.get(severity);
+    return (severityIssues == null) ? 0 : severityIssues.count;
   }
 
   /**
-   * Extract rule list according to a severity.
+   * Number of issues of the given rule with the given severity, off diff issues included.
+   */
+  public int countIssues(String severity, String rule) {
+    int result = 0;
+
+    SeverityIssues severityIssues = issuesBySeverity.get(severity);
+    if (severityIssues != null) {
+      RuleIssues ruleIssues = severityIssues.rules.get(rule);
+      if (ruleIssues != null) {
+        result = ruleIssues.count;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Extract rule list according to a severity: first issue of each rule, in order of addition.
    */
   public Map<String, SonarQubeIssue> getUniqueRulesBySeverity(String severity) {
-    Map<String, SonarQubeIssue> result = new HashMap<>();
+    Map<String, SonarQubeIssue> result = new LinkedHashMap<>();
 
-    for (SonarQubeIssue issue : getIssuesBySeverity(severity)) {
-      result.put(issue.getRule(), issue);
+    SeverityIssues severityIssues = issuesBySeverity.get(severity);
+    if (severityIssues != null) {
+      for (Map.Entry<String, RuleIssues> rule : severityIssues.rules.entrySet()) {
+        result.put(rule.getKey(), rule.getValue().firstIssue);
+      }
     }
-    
+
     return result;
   }
 
+  /**
+   * Aggregates of the issues of a severity.
+   */
+  private static class SeverityIssues {
+
+    private int count;
+    private final Map<String, RuleIssues> rules = new LinkedHashMap<>();
+
+    /**
+     * @param issue issue of the rule, null if only counted
+     */
+    void add(String rule, SonarQubeIssue issue) {
+      count++;
+
+      RuleIssues ruleIssues = rules.get(rule);
+      if (ruleIssues == null) {
+        ruleIssues = new RuleIssues(issue);
+        rules.put(rule, ruleIssues);
+      }
+      ruleIssues.count++;
+    }
+  }
+
+  /**
+   * Aggregates of the issues of a rule.
+   */
+  private static class RuleIssues {
+
+    private final SonarQubeIssue firstIssue;
+    private int count;
+
+    RuleIssues(SonarQubeIssue firstIssue) {
+      this.firstIssue = firstIssue;
+    }
+  }
 }
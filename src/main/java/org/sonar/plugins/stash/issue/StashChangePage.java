@@ -0,0 +1,34 @@
+package org.sonar.plugins.stash.issue;
+
+import java.util.List;
+
+/**
+ * One page of the files changed by a pull-request, as returned by Stash REST API, with its pagination data.
+ */
+public class StashChangePage {
+
+  private final List<String> paths;
+  private final boolean lastPage;
+  private final long nextPageStart;
+
+  public StashChangePage(List<String> paths, boolean lastPage, long nextPageStart) {
+    this.paths = paths;
+    this.lastPage = lastPage;
+    this.nextPageStart = nextPageStart;
+  }
+
+  /**
+   * Paths of the files added or modified by the pull-request: deleted files are not part of the page.
+   */
+  public List<String> getPaths() {
+    return paths;
+  }
+
+  public boolean isLastPage() {
+    return lastPage;
+  }
+
+  public long getNextPageStart() {
+    return nextPageStart;
+  }
+}
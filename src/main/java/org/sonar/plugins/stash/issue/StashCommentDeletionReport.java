@@ -0,0 +1,44 @@
+package org.sonar.plugins.stash.issue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of the deletion of a list of Stash comments: deleted comments, and error message of each failed deletion.
+ */
+public class StashCommentDeletionReport {
+
+  private final List<StashComment> deletedComments;
+  private final Map<StashComment, String> failedComments;
+
+  public StashCommentDeletionReport() {
+    this.deletedComments = new ArrayList<>();
+    this.failedComments = new LinkedHashMap<>();
+  }
+
+  public void addDeleted(StashComment comment) {
+    deletedComments.add(comment);
+  }
+
+  public void addFailed(StashComment comment, String message) {
+    failedComments.put(comment, message);
+  }
+
+  public List<StashComment> getDeletedComments() {
+    return deletedComments;
+  }
+
+  public Map<StashComment, String> getFailedComments() {
+    return failedComments;
+  }
+
+  public int countDeleted() {
+    return deletedComments.size();
+  }
+
+  public int countFailed() {
+    return failedComments.size();
+  }
+}
@@ -0,0 +1,29 @@
+package org.sonar.plugins.stash.issue;
+
+/**
+ * One page of comments returned by Stash REST API, with its pagination data.
+ */
+public class StashCommentPage {
+
+  private final StashCommentReport comments;
+  private final boolean lastPage;
+  private final long nextPageStart;
+
+  public StashCommentPage(StashCommentReport comments, boolean lastPage, long nextPageStart) {
+    this.comments = comments;
+    this.lastPage = lastPage;
+    this.nextPageStart = nextPageStart;
+  }
+
+  public StashCommentReport getComments() {
+    return comments;
+  }
+
+  public boolean isLastPage() {
+    return lastPage;
+  }
+
+  public long getNextPageStart() {
+    return nextPageStart;
+  }
+}
@@ -1,7 +1,9 @@
 package org.sonar.plugins.stash.issue;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -12,9 +14,13 @@ public class StashCommentReport {
   private static final Logger LOGGER = LoggerFactory.getLogger(StashCommentReport.class);
   
   private List<StashComment> comments;
+  
+  // (path, line, message) of each comment, to check in constant time if an issue is already commented
+  private Map<CommentKey, StashComment> commentKeys;
 
   public StashCommentReport() {
     this.comments = new ArrayList<>();
+    this.commentKeys = new HashMap<>();
   }
 
   public List<StashComment> getComments() {
@@ -23,26 +29,24 @@ public class StashCommentReport {
   
   public void add(StashComment comment) {
     comments.add(comment);
+    indexComment(comment);
   }
   
   public void add(StashCommentReport report) {
     for (StashComment comment: report.getComments()){
-      comments.add(comment);  
+      add(comment);  
     }
   }
 
   public boolean contains(String message, String path, long line) {
-    boolean result = false;
-    for (StashComment comment : comments) {
-      if (StringUtils.equals(comment.getMessage(), message) &&
-          StringUtils.equals(comment.getPath(), path) &&
-          (comment.getLine() == line)) {
-        result = true;
-        break;
-      }
-    }
-
-    return result;
+    return commentKeys.containsKey(new CommentKey(message, path, line));
+  }
+  
+  /**
+   * First comment with the given message at the given place, null if there is none.
+   */
+  public StashComment getComment(String message, String path, long line) {
+    return commentKeys.get(new CommentKey(message, path, line));
   }
 
   public StashCommentReport applyDiffReport(StashDiffReport diffReport){
@@ -59,6 +63,12 @@ public class StashCommentReport {
       }
     }
     
+    // comment lines may have changed: index has to be refreshed
+    commentKeys.clear();
+    for (StashComment comment: comments){
+      indexComment(comment);
+    }
+    
     return this;
   }
   
@@ -66,4 +76,48 @@ public class StashCommentReport {
     return comments.size();
   }
 
+  private void indexComment(StashComment comment) {
+    CommentKey commentKey = new CommentKey(comment.getMessage(), comment.getPath(), comment.getLine());
+    if (! commentKeys.containsKey(commentKey)) {
+      commentKeys.put(commentKey, comment);
+    }
+  }
+
+  /**
+   * Identity of a comment from SonarQube point of view: same message at the same place.
+   */
+  private static final class CommentKey {
+    
+    private final String message;
+    private final String path;
+    private final long line;
+    
+    CommentKey(String message, String path, long line) {
+      this.message = message;
+      this.path = path;
+      this.line = line;
+    }
+    
+    @Override
+    public boolean equals(Object object) {
+      boolean result = false;
+      if (object instanceof CommentKey) {
+        CommentKey commentKey = (CommentKey) object;
+        result = (line == commentKey.line) &&
+                 StringUtils.equals(path, commentKey.path) &&
+                 StringUtils.equals(message, commentKey.message);
+      }
+      
+      return result;
+    }
+    
+    @Override
+    public int hashCode() {
+      int result = (int) (line ^ (line >>> 32));
+      result = 31 * result + ((path == null) ? 0 : path.hashCode());
+      result = 31 * result + ((message == null) ? 0 : message.hashCode());
+      
+      return result;
+    }
+  }
 }
@@ -1,28 +1,44 @@
 package org.sonar.plugins.stash.issue;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 import org.apache.commons.lang3.StringUtils;
 import org.sonar.plugins.stash.StashPlugin;
 
+/**
+ * Line of the Stash diff view.
+ *
+ * Diffs are stored column-wise by StashDiffReport: the diffs it returns are views, equal to the diffs which have been added.
+ */
 public class StashDiff {
 
   private final String type;
   private final String path;
   private final long source;
   private final long destination;
-  private final List<StashComment> comments;
+  
+  // most lines have no comment: list is allocated with the first one
+  private List<StashComment> comments;
   
   public StashDiff(String type, String path, long source, long destination) {
     this.type = type;
     this.path = path;
     this.source = source;
     this.destination = destination;
-    this.comments = new ArrayList<>();
+  }
+
+  StashDiff(String type, String path, long source, long destination, List<StashComment> comments) {
+    this(type, path, source, destination);
+    this.comments = comments;
   }
 
   public void addComment(StashComment comment){
+    if (comments == null) {
+      comments = new ArrayList<>();
+    }
     this.comments.add(comment);
   }
   
@@ -43,6 +59,9 @@ public class StashDiff {
   }
   
   public List<StashComment> getComments(){
+    if (comments == null) {
+      return Collections.emptyList();
+    }
     return comments;
   }
   
@@ -52,7 +71,7 @@ public class StashDiff {
   
   public boolean containsComment(long commentId){
     boolean result = false;
-    for (StashComment comment: comments){
+    for (StashComment comment: getComments()){
       long cid = comment.getId();
       if (cid == commentId){
         result = true;
@@ -62,4 +81,22 @@ public class StashDiff {
     
     return result;
   }
+  
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (! (obj instanceof StashDiff)) {
+      return false;
+    }
+    
+    StashDiff diff = (StashDiff) obj;
+    return (source == diff.source) && (destination == diff.destination) && Objects.equals(type, diff.type) && Objects.equals(path, diff.path);
+  }
+  
+  @Override
+  public int hashCode() {
+    return Objects.hash(type, path, source, destination);
+  }
 }
@@ -1,61 +1,122 @@
 package org.sonar.plugins.stash.issue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.sonar.plugins.stash.StashPlugin;
 
 /**
  * This class is a representation of the Stash Diff view.
- * 
+ *
  * Purpose is to check if a SonarQube issue belongs to the Stash diff view before posting.
  * Indeed, Stash Diff view displays only comments which belong to this view.
  *
+ * Diff view of a large pull-request holds a lot of lines: lines are stored column-wise per file,
+ * with primitive arrays of source and destination lines and a byte-coded type.
+ * Comments are held apart, only for the lines which have some.
+ * StashDiff objects are views, built on demand.
  */
-public class StashDiffReport {
+public class StashDiffReport implements DiffFilter {
+
+  // diff types met in the report, coded by their index
+  private final List<String> types;
 
-  private List<StashDiff> diffs;
+  // diffs of each file, in order of addition
+  private final Map<String, FileDiffs> diffsByPath;
+
+  // line holding each comment, indexed by comment id
+  private final Map<Long, DiffLine> diffsByComment;
 
   public StashDiffReport() {
-    this.diffs = new ArrayList<>();
+    this.types = new ArrayList<>();
+    this.diffsByPath = new LinkedHashMap<>();
+    this.diffsByComment = new HashMap<>();
   }
 
+  /**
+   * All diffs of the report, as views built on each call.
+   */
   public List<StashDiff> getDiffs() {
-    return diffs;
+    List<StashDiff> result = new ArrayList<>();
+
+    for (FileDiffs fileDiffs : diffsByPath.values()) {
+      for (int index = 0; index < fileDiffs.size; index++) {
+        result.add(getDiff(fileDiffs, index));
+      }
+    }
+
+    return result;
   }
-  
+
+  /**
+   * Add a diff to the report.
+   * Comments have to be attached to the diff before, to be indexed by the report.
+   */
   public void add(StashDiff diff) {
-    diffs.add(diff);
+    add(diff.getType(), diff.getPath(), diff.getSource(), diff.getDestination(), diff.getComments());
   }
-  
+
+  /**
+   * Add a diff line to the report, without building a StashDiff.
+   */
+  public void add(String type, String path, long source, long destination, List<StashComment> comments) {
+    FileDiffs fileDiffs = diffsByPath.get(path);
+    if (fileDiffs == null) {
+      fileDiffs = new FileDiffs(path);
+      diffsByPath.put(path, fileDiffs);
+    }
+
+    int index = fileDiffs.add(getTypeCode(type), toLine(source), toLine(destination));
+
+    if (! comments.isEmpty()) {
+      fileDiffs.comments.put(index, new ArrayList<>(comments));
+
+      for (StashComment comment : comments) {
+        Long commentId = comment.getId();
+        if (! diffsByComment.containsKey(commentId)) {
+          diffsByComment.put(commentId, new DiffLine(fileDiffs, index));
+        }
+      }
+    }
+  }
+
   public void add(StashDiffReport report) {
-    for (StashDiff diff: report.getDiffs()){
-      diffs.add(diff);  
+    for (FileDiffs fileDiffs : report.diffsByPath.values()) {
+      for (int index = 0; index < fileDiffs.size; index++) {
+        add(report.types.get(fileDiffs.types[index]), fileDiffs.path, fileDiffs.sources[index], fileDiffs.destinations[index],
+            fileDiffs.getComments(index));
+      }
     }
   }
-  
+
   public String getType(String path, long destination){
     String result = null;
-    
-    for (StashDiff diff : diffs) {
+
+    FileDiffs fileDiffs = diffsByPath.get(path);
+    if (fileDiffs != null) {
+
       // Line 0 never belongs to Stash Diff view.
       // It is a global comment with a type set to CONTEXT.
-      if (StringUtils.equals(diff.getPath(), path) && (destination == 0)){
+      if (destination == 0) {
         result = StashPlugin.CONTEXT_ISSUE_TYPE;
-        break;
-      } else{
-        
-        if (StringUtils.equals(diff.getPath(), path) && (diff.getDestination() == destination)) {
-          result = diff.getType();
-          break;
+      } else {
+
+        int index = fileDiffs.indexOf(destination);
+        if (index >= 0) {
+          result = types.get(fileDiffs.types[index]);
         }
       }
     }
 
     return result;
   }
-  
+
   /**
    * Depends on the type of the diff.
    * If type == "CONTEXT", return the source line of the diff.
@@ -63,49 +124,202 @@ public class StashDiffReport {
    */
   public long getLine(String path, long destination){
     long result = 0;
-    for (StashDiff diff : diffs) {
-      if (StringUtils.equals(diff.getPath(), path) && (diff.getDestination() == destination)) {
-        if (diff.isTypeOfContext()){
-          result = diff.getSource();
+
+    FileDiffs fileDiffs = diffsByPath.get(path);
+    if (fileDiffs != null) {
+      int index = fileDiffs.indexOf(destination);
+      if (index >= 0) {
+        if (StringUtils.equals(StashPlugin.CONTEXT_ISSUE_TYPE, types.get(fileDiffs.types[index]))){
+          result = fileDiffs.sources[index];
         } else{
-          result = diff.getDestination();
+          result = fileDiffs.destinations[index];
         }
-        
-        break;
       }
     }
 
     return result;
   }
-  
+
+  /**
+   * Is the given destination line part of the diff view?
+   */
+  @Override
+  public boolean contains(String path, long line) {
+    return getType(path, line) != null;
+  }
+
   public StashDiff getDiffByComment(long commentId){
     StashDiff result = null;
-    for (StashDiff diff : diffs) {
-      if (diff.containsComment(commentId)) {
-        result = diff;
-        break;
-      }
+
+    DiffLine diffLine = diffsByComment.get(commentId);
+    if (diffLine != null) {
+      result = getDiff(diffLine.fileDiffs, diffLine.index);
     }
 
     return result;
   }
-  
+
   /**
    * Get all comments from the Stash differential report.
    */
   public List<StashComment> getComments() {
-    List<StashComment> result = new ArrayList<>();
-    
-    for (StashDiff diff: this.diffs) {
-      List<StashComment> comments = diff.getComments();
-      
-      for (StashComment comment: comments) {
-        if (! result.contains(comment)) {
-          result.add(comment);
+
+    // comments indexed by id: a comment may be attached to several diffs
+    Map<Long, StashComment> result = new LinkedHashMap<>();
+
+    for (FileDiffs fileDiffs : diffsByPath.values()) {
+      for (List<StashComment> comments : fileDiffs.comments.values()) {
+
+        for (StashComment comment: comments) {
+          if (! result.containsKey(comment.getId())) {
+            result.put(comment.getId(), comment);
+          }
         }
       }
     }
-    
-    return result;
+
+    return new ArrayList<>(result.values());
+  }
+
+  private StashDiff getDiff(FileDiffs fileDiffs, int index) {
+    // comments of a view can be changed without changing the report
+    List<StashComment> comments = fileDiffs.getComments(index);
+    return new StashDiff(types.get(fileDiffs.types[index]), fileDiffs.path, fileDiffs.sources[index], fileDiffs.destinations[index],
+        comments.isEmpty() ? null : new ArrayList<>(comments));
+  }
+
+  private byte getTypeCode(String type) {
+    int result = types.indexOf(type);
+    if (result < 0) {
+      result = types.size();
+      types.add(type);
+    }
+
+    return (byte) result;
+  }
+
+  private static int toLine(long line) {
+    if ((line < 0) || (line > Integer.MAX_VALUE)) {
+      throw new IllegalArgumentException("Invalid diff line: " + line);
+    }
+
+    return (int) line;
+  }
+
+  /**
+   * Diff lines of a file, stored column-wise.
+   */
+  private static class FileDiffs {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String path;
+    private int size;
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private int[] sources = new int[INITIAL_CAPACITY];
+    private int[] destinations = new int[INITIAL_CAPACITY];
+
+    // comments of the lines which have some, by line index, in order of addition
+    private final Map<Integer, List<StashComment>> comments = new LinkedHashMap<>();
+
+    // Stash sends lines by increasing destination: lookups are binary searches on destinations.
+    // Otherwise, such as when file comments are attached to line 0 after the other lines,
+    // lookups use destinations sorted with their index: (destination << 32) | index
+    private boolean sorted = true;
+    private long[] sortedDestinations;
+
+    FileDiffs(String path) {
+      this.path = path;
+    }
+
+    int add(byte type, int source, int destination) {
+      if (size == destinations.length) {
+        int capacity = size * 2;
+        types = Arrays.copyOf(types, capacity);
+        sources = Arrays.copyOf(sources, capacity);
+        destinations = Arrays.copyOf(destinations, capacity);
+      }
+
+      if ((size > 0) && (destination < destinations[size - 1])) {
+        sorted = false;
+      }
+      sortedDestinations = null;
+
+      types[size] = type;
+      sources[size] = source;
+      destinations[size] = destination;
+      return size++;
+    }
+
+    /**
+     * Index of the first line with the given destination, negative if there is none.
+     */
+    int indexOf(long destination) {
+      if ((destination < 0) || (destination > Integer.MAX_VALUE)) {
+        return -1;
+      }
+
+      if (sorted) {
+        int index = lowerBound(destination);
+        return ((index < size) && (destinations[index] == destination)) ? index : -1;
+      }
+
+      if (sortedDestinations == null) {
+        sortedDestinations = new long[size];
+        for (int index = 0; index < size; index++) {
+          sortedDestinations[index] = ((long) destinations[index] << 32) | index;
+        }
+        Arrays.sort(sortedDestinations);
+      }
+
+      // first line wins: lowest index among the lines of the given destination
+      int position = Arrays.binarySearch(sortedDestinations, destination << 32);
+      if (position < 0) {
+        position = -position - 1;
+      }
+      if ((position < size) && ((sortedDestinations[position] >>> 32) == destination)) {
+        return (int) sortedDestinations[position];
+      }
+
+      return -1;
+    }
+
+    private int lowerBound(long destination) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (destinations[middle] < destination) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+
+      return low;
+    }
+
+    List<StashComment> getComments(int index) {
+      List<StashComment> result = comments.get(index);
+      if (result == null) {
+        result = Collections.emptyList();
+      }
+
+      return result;
+    }
+  }
+
+  /**
+   * Reference to a diff line, for the lines holding comments.
+   */
+  private static class DiffLine {
+
+    private final FileDiffs fileDiffs;
+    private final int index;
+
+    DiffLine(FileDiffs fileDiffs, int index) {
+      this.fileDiffs = fileDiffs;
+      this.index = index;
+    }
   }
 }
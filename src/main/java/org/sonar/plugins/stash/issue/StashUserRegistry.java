@@ -0,0 +1,47 @@
+package org.sonar.plugins.stash.issue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Users met during an analysis, by id and by slug.
+ *
+ * Comment authors, reviewers and fetched users all resolve to a single StashUser instance per id,
+ * so that a user is allocated once and fetched at most once per analysis.
+ */
+public class StashUserRegistry {
+
+  private final ConcurrentMap<Long, StashUser> usersById = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, StashUser> usersBySlug = new ConcurrentHashMap<>();
+
+  /**
+   * Canonical user of the given id, registered with the given data if the user is not known yet.
+   */
+  public StashUser register(long id, String name, String slug, String email) {
+    StashUser result = usersById.get(id);
+
+    if (result == null) {
+      StashUser user = new StashUser(id, name, slug, email);
+      result = usersById.putIfAbsent(id, user);
+      if (result == null) {
+        result = user;
+        if (slug != null) {
+          usersBySlug.putIfAbsent(slug, user);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * User already met with the given slug, null if there is none.
+   */
+  public StashUser getUser(String slug) {
+    return usersBySlug.get(slug);
+  }
+
+  public int size() {
+    return usersById.size();
+  }
+}
@@ -0,0 +1,36 @@
+package org.sonar.plugins.stash.issue;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Canonical instances of the strings met during an analysis: paths, rule keys, severities and messages.
+ *
+ * The same path or message is read again and again from SonarQube issues and Stash responses.
+ * Once canonicalized, equal strings are held only once, and equality checks succeed on the reference comparison
+ * String.equals starts with.
+ */
+public class StringDictionary {
+
+  private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<>();
+
+  /**
+   * Canonical instance of the given string, null if the string is null.
+   */
+  public String get(String value) {
+    if (value == null) {
+      return null;
+    }
+
+    String result = strings.putIfAbsent(value, value);
+    if (result == null) {
+      result = value;
+    }
+
+    return result;
+  }
+
+  public int size() {
+    return strings.size();
+  }
+}
@@ -1,16 +1,18 @@
 package org.sonar.plugins.stash.issue.collector;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.issue.Issue;
 import org.sonar.api.issue.ProjectIssues;
-import org.sonar.api.scan.filesystem.PathResolver;
 import org.sonar.plugins.stash.InputFileCache;
+import org.sonar.plugins.stash.issue.DiffFilter;
 import org.sonar.plugins.stash.issue.SonarQubeIssue;
 import org.sonar.plugins.stash.issue.SonarQubeIssuesReport;
+import org.sonar.plugins.stash.issue.StringDictionary;
 
 public final class SonarQubeCollector {
 
@@ -26,35 +28,69 @@ public final class SonarQubeCollector {
    * analysis.
    */
   public static SonarQubeIssuesReport extractIssueReport(ProjectIssues projectIssues, InputFileCache inputFileCache, File projectBaseDir) {
+    return extractIssueReport(projectIssues, inputFileCache, projectBaseDir, new StringDictionary());
+  }
+  
+  /**
+   * @param strings strings of the analysis: severities, rules, messages and paths of the issues are canonicalized against
+   */
+  public static SonarQubeIssuesReport extractIssueReport(ProjectIssues projectIssues, InputFileCache inputFileCache, File projectBaseDir,
+      StringDictionary strings) {
+    return extractIssueReport(projectIssues, inputFileCache, projectBaseDir, strings, null);
+  }
+  
+  /**
+   * @param strings strings of the analysis: severities, rules, messages and paths of the issues are canonicalized against
+   * @param diffFilter diff view of the pull-request: issues out of it are only counted, null to keep all the issues
+   */
+  public static SonarQubeIssuesReport extractIssueReport(ProjectIssues projectIssues, InputFileCache inputFileCache, File projectBaseDir,
+      StringDictionary strings, DiffFilter diffFilter) {
     SonarQubeIssuesReport result = new SonarQubeIssuesReport();
 
+    // path of each file resolved once, whatever the number of issues it carries
+    Map<String, String> pathByComponentKey = new HashMap<>();
+    int pathCacheHits = 0;
+
     for (Issue issue : projectIssues.issues()) {
       if (! issue.isNew()){
         LOGGER.debug("Issue {} is not a new issue and so, not added to the report", issue.key());
       } else {
-        String key = issue.key();
-        String severity = issue.severity();
-        String rule = issue.ruleKey().toString();
-        String message = issue.message();
+        String severity = strings.get(issue.severity());
+        String rule = strings.get(issue.ruleKey().toString());
   
         int line = 0;
         if (issue.line() != null) {
           line = issue.line();
         }
   
-        InputFile inputFile = inputFileCache.getInputFile(issue.componentKey());
-        if (inputFile == null){
-          LOGGER.debug("Issue {} is not linked to a file, not added to the report", issue.key());
+        String path;
+        if (pathByComponentKey.containsKey(issue.componentKey())) {
+          path = pathByComponentKey.get(issue.componentKey());
+          pathCacheHits++;
         } else {
-          String path = new PathResolver().relativePath(projectBaseDir, inputFile.file());
+          path = strings.get(inputFileCache.getRelativePath(issue.componentKey(), projectBaseDir));
+          pathByComponentKey.put(issue.componentKey(), path);
+        }
+
+        if (path == null){
+          LOGGER.debug("Issue {} is not linked to a file, not added to the report", issue.key());
+        } else if ((diffFilter == null) || diffFilter.contains(path, line)) {
              
           // Create the issue and Add to report
-          SonarQubeIssue stashIssue = new SonarQubeIssue(key, severity, message, rule, path, line);
+          SonarQubeIssue stashIssue = new SonarQubeIssue(issue.key(), severity, strings.get(issue.message()), rule, path, line);
           result.add(stashIssue);
-        } 
+        } else if (! result.countOffDiff(severity, rule)) {
+          
+          // issue never commented, but first one of its rule in the overview: message is read only in that case
+          result.addOffDiff(new SonarQubeIssue(issue.key(), severity, strings.get(issue.message()), rule, path, line));
+        }
       }
     }
 
+    LOGGER.debug("{} issues out of the pull-request diff only counted", result.countOffDiffIssues());
+    LOGGER.debug("File paths resolved for {} components, {} cache hits over {} lookups", pathByComponentKey.size(), pathCacheHits,
+        pathByComponentKey.size() + pathCacheHits);
+
     return result;
   }
 }
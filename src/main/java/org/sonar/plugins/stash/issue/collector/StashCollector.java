@@ -1,63 +1,107 @@
 package org.sonar.plugins.stash.issue.collector;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.commons.lang3.StringUtils;
+
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
-import org.sonar.plugins.stash.StashPlugin;
 import org.sonar.plugins.stash.exceptions.StashReportExtractionException;
+import org.sonar.plugins.stash.issue.StashChangePage;
 import org.sonar.plugins.stash.issue.StashComment;
+import org.sonar.plugins.stash.issue.StashCommentPage;
 import org.sonar.plugins.stash.issue.StashCommentReport;
-import org.sonar.plugins.stash.issue.StashDiff;
 import org.sonar.plugins.stash.issue.StashDiffReport;
 import org.sonar.plugins.stash.issue.StashPullRequest;
 import org.sonar.plugins.stash.issue.StashUser;
+import org.sonar.plugins.stash.issue.StashUserRegistry;
+import org.sonar.plugins.stash.issue.StringDictionary;
 
 public final class StashCollector {
 
+  private static final String DELETE_CHANGE_TYPE = "DELETE";
+
   private StashCollector() {
     // NOTHING TO DO
     // Pure static class
   }
 
   public static StashCommentReport extractComments(String jsonBody) throws StashReportExtractionException {
+    return extractComments(parseObject(jsonBody), new StashUserRegistry(), new StringDictionary());
+  }
+  
+  /**
+   * Extract comments and pagination data of a Stash comment page, parsing the page only once.
+   */
+  public static StashCommentPage extractCommentPage(String jsonBody) throws StashReportExtractionException {
+    return extractCommentPage(jsonBody, new StashUserRegistry(), new StringDictionary());
+  }
+  
+  /**
+   * @param users users of the analysis, comment authors are resolved against
+   * @param strings strings of the analysis, comment paths and messages are canonicalized against
+   */
+  public static StashCommentPage extractCommentPage(String jsonBody, StashUserRegistry users, StringDictionary strings)
+      throws StashReportExtractionException {
+    JSONObject jsonPage = parseObject(jsonBody);
+    return new StashCommentPage(extractComments(jsonPage, users, strings), isLastPage(jsonPage), getNextPageStart(jsonPage));
+  }
+  
+  private static StashCommentReport extractComments(JSONObject jsonComments, StashUserRegistry users, StringDictionary strings) {
     StashCommentReport result = new StashCommentReport();
 
-    try {
-      JSONObject jsonComments = (JSONObject) new JSONParser().parse(jsonBody);
+    JSONArray jsonValues = (JSONArray) jsonComments.get("values");
+    if (jsonValues != null) {
 
-      JSONArray jsonValues = (JSONArray) jsonComments.get("values");
-      if (jsonValues != null) {
-
-        for (Object obj : jsonValues.toArray()) {
-          JSONObject jsonComment = (JSONObject) obj;
-          long id = (long) jsonComment.get("id");
-          String message = (String) jsonComment.get("text");
-
-          JSONObject jsonAnchor = (JSONObject) jsonComment.get("anchor");
-          String path = (String) jsonAnchor.get("path");
-          
-          // can be null if comment is attached to the global file
-          Long line = (Long) jsonAnchor.get("line");
-          
-          long version = (long) jsonComment.get("version");
-          
-          JSONObject jsonAuthor = (JSONObject) jsonComment.get("author");
-          StashUser stashUser = extractUser(jsonAuthor.toJSONString());
-          
-          StashComment comment = new StashComment(id, message, path, line, stashUser, version);
-          result.add(comment);
-        }
+      for (Object obj : jsonValues) {
+        result.add(extractComment((JSONObject) obj, users, strings));
       }
-    } catch (ParseException e) {
-      throw new StashReportExtractionException(e);
     }
     
     return result;
+  }
+  
+  /**
+   * Extract a line comment, such as the one sent back by Stash when the comment is created.
+   */
+  public static StashComment extractComment(String jsonBody) throws StashReportExtractionException {
+    return extractComment(jsonBody, new StashUserRegistry(), new StringDictionary());
+  }
+  
+  public static StashComment extractComment(String jsonBody, StashUserRegistry users, StringDictionary strings) throws StashReportExtractionException {
+    return extractComment(parseObject(jsonBody), users, strings);
+  }
+  
+  private static StashComment extractComment(JSONObject jsonComment, StashUserRegistry users, StringDictionary strings) {
+    long id = (long) jsonComment.get("id");
+    String message = strings.get((String) jsonComment.get("text"));
+
+    JSONObject jsonAnchor = (JSONObject) jsonComment.get("anchor");
+    String path = strings.get((String) jsonAnchor.get("path"));
+    
+    // can be null if comment is attached to the global file
+    Long line = (Long) jsonAnchor.get("line");
+    
+    long version = (long) jsonComment.get("version");
+    
+    JSONObject jsonAuthor = (JSONObject) jsonComment.get("author");
+    StashUser stashUser = extractUser(jsonAuthor, users);
+    
+    return new StashComment(id, message, path, line, stashUser, version);
   }
 
   public static StashPullRequest extractPullRequest(String project, String repository, String pullRequestId, String jsonBody) throws StashReportExtractionException {
+    return extractPullRequest(project, repository, pullRequestId, jsonBody, new StashUserRegistry());
+  }
+  
+  public static StashPullRequest extractPullRequest(String project, String repository, String pullRequestId, String jsonBody, StashUserRegistry users)
+      throws StashReportExtractionException {
     StashPullRequest result = new StashPullRequest(project, repository, pullRequestId);
     
     try {
@@ -68,12 +112,12 @@ public final class StashCollector {
     
       JSONArray jsonReviewers = (JSONArray) jsonPullRequest.get("reviewers");
       if (jsonReviewers != null) {
-        for (Object objReviewer : jsonReviewers.toArray()) {
+        for (Object objReviewer : jsonReviewers) {
           JSONObject jsonReviewer = (JSONObject) objReviewer;
           
           JSONObject jsonUser = (JSONObject) jsonReviewer.get("user");
           if (jsonUser != null){
-            StashUser reviewer = extractUser(jsonUser.toJSONString());
+            StashUser reviewer = extractUser(jsonUser, users);
             result.addReviewer(reviewer);
           }
         }
@@ -86,169 +130,113 @@ public final class StashCollector {
   }
   
   public static StashUser extractUser(String jsonBody) throws StashReportExtractionException {
+    return extractUser(jsonBody, new StashUserRegistry());
+  }
+  
+  public static StashUser extractUser(String jsonBody, StashUserRegistry users) throws StashReportExtractionException {
     try {
       JSONObject jsonUser = (JSONObject) new JSONParser().parse(jsonBody);
-
-      long id = (long) jsonUser.get("id");
-      String name = (String) jsonUser.get("name");
-      String slug = (String) jsonUser.get("slug");
-      String email = (String) jsonUser.get("email");
-              
-      return new StashUser(id, name, slug, email);
+      return extractUser(jsonUser, users);
     
     } catch (ParseException e) {
       throw new StashReportExtractionException(e);
     }
   }
   
+  /**
+   * Users are resolved against the registry: a user met several times is allocated only once.
+   */
+  static StashUser extractUser(JSONObject jsonUser, StashUserRegistry users) {
+    long id = (long) jsonUser.get("id");
+    String name = (String) jsonUser.get("name");
+    String slug = (String) jsonUser.get("slug");
+    String email = (String) jsonUser.get("email");
+            
+    return users.register(id, name, slug, email);
+  }
+  
   public static StashDiffReport extractDiffs(String jsonBody) throws StashReportExtractionException {
+    return extractDiffs(new StringReader(jsonBody));
+  }
+  
+  public static StashDiffReport extractDiffs(Reader jsonReader) throws StashReportExtractionException {
+    return extractDiffs(jsonReader, new StashUserRegistry(), new StringDictionary());
+  }
+  
+  /**
+   * Extract the diff report while reading the JSON stream: JSON document is never loaded as a whole.
+   */
+  public static StashDiffReport extractDiffs(Reader jsonReader, StashUserRegistry users, StringDictionary strings) throws StashReportExtractionException {
     StashDiffReport result = new StashDiffReport();
 
     try {
-      JSONObject jsonObject = (JSONObject) new JSONParser().parse(jsonBody);
-
-      JSONArray jsonDiffs = (JSONArray) jsonObject.get("diffs");
-      if (jsonDiffs != null) {
-        for (Object objDiff : jsonDiffs.toArray()) {
-          JSONObject jsonDiff = (JSONObject) objDiff;
-          
-          // destination path in diff view
-          // if status of the file is deleted, destination == null
-          JSONObject destinationPath = (JSONObject) jsonDiff.get("destination");
-          if (destinationPath != null){
-            String path = (String) destinationPath.get("toString");
-            
-            JSONArray jsonHunks = (JSONArray) jsonDiff.get("hunks");
-            if (jsonHunks != null) {
-              for (Object objHunk : jsonHunks.toArray()) {
-                JSONObject jsonHunk = (JSONObject) objHunk;
-                
-                JSONArray jsonSegments = (JSONArray) jsonHunk.get("segments");
-                if (jsonSegments != null) {
-                  for (Object objSegment : jsonSegments.toArray()) {
-                    JSONObject jsonSegment = (JSONObject) objSegment;
-                    
-                    // type of the diff in diff view
-                    // We filter REMOVED type, like useless for SQ analysis
-                    String type = (String) jsonSegment.get("type");
-                    if (!StringUtils.equals(type, StashPlugin.REMOVED_ISSUE_TYPE)){
-                    
-                      JSONArray jsonLines = (JSONArray) jsonSegment.get("lines");
-                      if (jsonLines != null) {
-                        for (Object objLine : jsonLines.toArray()) {
-                          JSONObject jsonLine = (JSONObject) objLine;
-                          
-                          // destination line in diff view
-                          long source = (long) jsonLine.get("source");
-                          long destination = (long) jsonLine.get("destination");
-                          
-                          StashDiff diff = new StashDiff(type, path, source, destination);
-                          
-                          // Add comment attached to the current line
-                          JSONArray jsonCommentIds = (JSONArray) jsonLine.get("commentIds");
-                          if (jsonCommentIds != null) {
-                            
-                            for (Object objCommentId: jsonCommentIds.toArray()) {
-                              long commentId = (long) objCommentId; 
-                              
-                              JSONArray jsonLineComments = (JSONArray) jsonDiff.get("lineComments");
-                              if (jsonLineComments != null) {
-                                for (Object objLineComment : jsonLineComments.toArray()) {
-                                  JSONObject jsonLineComment = (JSONObject) objLineComment;
-                                  
-                                  long lineCommentId = (long) jsonLineComment.get("id");
-                                  if (lineCommentId == commentId) { 
-                                  
-                                    String lineCommentMessage = (String) jsonLineComment.get("text");
-                                    long lineCommentVersion = (long) jsonLineComment.get("version");
-                                  
-                                    JSONObject objAuthor = (JSONObject) jsonLineComment.get("author");
-                                    if (objAuthor != null) {
-                                      
-                                      StashUser author = extractUser(objAuthor.toJSONString());
-                                      
-                                      StashComment comment = new StashComment(lineCommentId, lineCommentMessage, path, destination, author, lineCommentVersion);
-                                      diff.addComment(comment);
-                                    }
-                                  }
-                                }
-                              }
-                            }
-                          }
-                          
-                          result.add(diff);
-                        }
-                      }
-                    }
-                  }
-                }
-              }
-              
-              // Extract File Comments: this kind of comment will be attached to line 0
-              JSONArray jsonLineComments = (JSONArray) jsonDiff.get("fileComments");
-              if (jsonLineComments != null) {
-                
-                StashDiff initialDiff = new StashDiff(StashPlugin.CONTEXT_ISSUE_TYPE, path, 0, 0);
-                          
-                for (Object objLineComment : jsonLineComments.toArray()) {
-                  JSONObject jsonLineComment = (JSONObject) objLineComment;
-                              
-                  long lineCommentId = (long) jsonLineComment.get("id");
-                  String lineCommentMessage = (String) jsonLineComment.get("text");
-                  long lineCommentVersion = (long) jsonLineComment.get("version");
-                              
-                  JSONObject objAuthor = (JSONObject) jsonLineComment.get("author");
-                  if (objAuthor != null) {
-                    
-                    StashUser author = extractUser(objAuthor.toJSONString());
-                                
-                    StashComment comment = new StashComment(lineCommentId, lineCommentMessage, path, (long) 0, author, lineCommentVersion);
-                    initialDiff.addComment(comment);
-                  }
-                }
-                          
-                result.add(initialDiff);
-              }
-            }
-          }
-        }
-      }
-    } catch (ParseException e) {
+      new JSONParser().parse(jsonReader, new StashDiffContentHandler(result, users, strings));
+      
+    } catch (ParseException | IOException e) {
       throw new StashReportExtractionException(e);
     }
     
     return result;
   }
   
-  public static boolean isLastPage(String jsonBody) throws StashReportExtractionException {
-    boolean result = true;
-
-    try {
-      JSONObject jsonObject = (JSONObject) new JSONParser().parse(jsonBody);
-      if (jsonObject.get("isLastPage") != null) {
-        result = (Boolean) jsonObject.get("isLastPage");
+  /**
+   * Extract the paths of the files changed by a pull-request, and pagination data, from a Stash change page.
+   */
+  public static StashChangePage extractChangePage(String jsonBody) throws StashReportExtractionException {
+    JSONObject jsonPage = parseObject(jsonBody);
+    List<String> paths = new ArrayList<>();
+
+    JSONArray jsonValues = (JSONArray) jsonPage.get("values");
+    if (jsonValues != null) {
+
+      for (Object obj : jsonValues) {
+        JSONObject jsonChange = (JSONObject) obj;
+        JSONObject jsonPath = (JSONObject) jsonChange.get("path");
+
+        // deleted files are not part of the analysis
+        if ((jsonPath != null) && ! StringUtils.equals((String) jsonChange.get("type"), DELETE_CHANGE_TYPE)) {
+          paths.add((String) jsonPath.get("toString"));
+        }
       }
+    }
 
-    } catch (ParseException e) {
-      throw new StashReportExtractionException(e);
+    return new StashChangePage(paths, isLastPage(jsonPage), getNextPageStart(jsonPage));
+  }
+  
+  public static boolean isLastPage(String jsonBody) throws StashReportExtractionException {
+    return isLastPage(parseObject(jsonBody));
+  }
+  
+  private static boolean isLastPage(JSONObject jsonObject) {
+    boolean result = true;
+    
+    if (jsonObject.get("isLastPage") != null) {
+      result = (Boolean) jsonObject.get("isLastPage");
     }
 
     return result;
   }
 
   public static long getNextPageStart(String jsonBody) throws StashReportExtractionException {
+    return getNextPageStart(parseObject(jsonBody));
+  }
+  
+  private static long getNextPageStart(JSONObject jsonObject) {
     long result = 0;
+    
+    if (jsonObject.get("nextPageStart") != null) {
+      result = (Long) jsonObject.get("nextPageStart");
+    }
 
+    return result;
+  }
+  
+  private static JSONObject parseObject(String jsonBody) throws StashReportExtractionException {
     try {
-      JSONObject jsonObject = (JSONObject) new JSONParser().parse(jsonBody);
-      if (jsonObject.get("nextPageStart") != null) {
-        result = (Long) jsonObject.get("nextPageStart");
-      }
-
+      return (JSONObject) new JSONParser().parse(jsonBody);
+      
     } catch (ParseException e) {
       throw new StashReportExtractionException(e);
     }
-
-    return result;
   }
 }
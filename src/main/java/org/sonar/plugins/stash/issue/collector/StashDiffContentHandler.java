@@ -0,0 +1,315 @@
+package org.sonar.plugins.stash.issue.collector;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.ParseException;
+import org.sonar.plugins.stash.StashPlugin;
+import org.sonar.plugins.stash.issue.StashComment;
+import org.sonar.plugins.stash.issue.StashDiffReport;
+import org.sonar.plugins.stash.issue.StashUser;
+import org.sonar.plugins.stash.issue.StashUserRegistry;
+import org.sonar.plugins.stash.issue.StringDictionary;
+
+/**
+ * Streaming extraction of the Stash pull-request diff view.
+ *
+ * Purpose is to build the StashDiffReport while reading the JSON tokens, without materializing the whole JSON document.
+ * Only the lines of the file being read and its comments are kept in memory: line comments are indexed by id,
+ * and attached to the diff lines once the file has been completely read.
+ */
+class StashDiffContentHandler implements ContentHandler {
+
+  private static final List<String> DIFF = Arrays.asList("diffs");
+  private static final List<String> DIFF_DESTINATION_PATH = Arrays.asList("diffs", "destination", "toString");
+  private static final List<String> DIFF_HUNKS = Arrays.asList("diffs", "hunks");
+  private static final List<String> SEGMENT = Arrays.asList("diffs", "hunks", "segments");
+  private static final List<String> SEGMENT_TYPE = Arrays.asList("diffs", "hunks", "segments", "type");
+  private static final List<String> LINE = Arrays.asList("diffs", "hunks", "segments", "lines");
+  private static final List<String> LINE_SOURCE = Arrays.asList("diffs", "hunks", "segments", "lines", "source");
+  private static final List<String> LINE_DESTINATION = Arrays.asList("diffs", "hunks", "segments", "lines", "destination");
+  private static final List<String> LINE_COMMENT_IDS = Arrays.asList("diffs", "hunks", "segments", "lines", "commentIds");
+  private static final List<String> LINE_COMMENTS = Arrays.asList("diffs", "lineComments");
+  private static final List<String> FILE_COMMENTS = Arrays.asList("diffs", "fileComments");
+
+  private final StashDiffReport report;
+  private final StashUserRegistry users;
+  private final StringDictionary strings;
+
+  // keys of the object entries leading to the current token
+  private final List<String> keys = new ArrayList<>();
+
+  // JSON comment currently built, and its enclosing containers
+  private final Deque<Object> comment = new ArrayDeque<>();
+  private final Deque<String> commentKeys = new ArrayDeque<>();
+
+  // current file
+  private String path;
+  private boolean hasHunks;
+  private List<DiffLine> lines;
+  private Map<Long, JSONObject> lineComments;
+  private List<JSONObject> fileComments;
+
+  // current segment
+  private String type;
+  private List<DiffLine> segmentLines;
+
+  // current line
+  private DiffLine line;
+
+  StashDiffContentHandler(StashDiffReport report, StashUserRegistry users, StringDictionary strings) {
+    this.report = report;
+    this.users = users;
+    this.strings = strings;
+  }
+
+  @Override
+  public void startJSON() {
+    // NOTHING TO DO
+  }
+
+  @Override
+  public void endJSON() {
+    // NOTHING TO DO
+  }
+
+  @Override
+  public boolean startObject() throws ParseException {
+    if (! comment.isEmpty()) {
+      addToComment(new JSONObject());
+
+    } else if (keys.equals(DIFF)) {
+      path = null;
+      hasHunks = false;
+      lines = new ArrayList<>();
+      lineComments = new HashMap<>();
+      fileComments = null;
+
+    } else if (keys.equals(SEGMENT)) {
+      type = null;
+      segmentLines = new ArrayList<>();
+
+    } else if (keys.equals(LINE)) {
+      line = new DiffLine();
+
+    } else if (keys.equals(LINE_COMMENTS) || keys.equals(FILE_COMMENTS)) {
+      comment.push(new JSONObject());
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean endObject() throws ParseException {
+    if (! comment.isEmpty()) {
+      Object jsonComment = comment.pop();
+
+      if (comment.isEmpty()) {
+        if (keys.equals(LINE_COMMENTS)) {
+          JSONObject jsonLineComment = (JSONObject) jsonComment;
+          lineComments.put((Long) jsonLineComment.get("id"), jsonLineComment);
+        } else {
+          fileComments.add((JSONObject) jsonComment);
+        }
+      }
+
+    } else if (keys.equals(LINE)) {
+      segmentLines.add(line);
+      line = null;
+
+    } else if (keys.equals(SEGMENT)) {
+
+      // type of the diff in diff view
+      // We filter REMOVED type, like useless for SQ analysis
+      if (! StringUtils.equals(type, StashPlugin.REMOVED_ISSUE_TYPE)) {
+        for (DiffLine segmentLine : segmentLines) {
+          segmentLine.type = type;
+          lines.add(segmentLine);
+        }
+      }
+      segmentLines = null;
+
+    } else if (keys.equals(DIFF)) {
+      addDiffs();
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean startObjectEntry(String key) {
+    if (comment.isEmpty()) {
+      keys.add(key);
+    } else {
+      commentKeys.push(key);
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean endObjectEntry() {
+    if (comment.isEmpty()) {
+      keys.remove(keys.size() - 1);
+    } else {
+      commentKeys.pop();
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean startArray() throws ParseException {
+    if (! comment.isEmpty()) {
+      addToComment(new JSONArray());
+
+    } else if (keys.equals(DIFF_HUNKS)) {
+      hasHunks = true;
+
+    } else if (keys.equals(FILE_COMMENTS)) {
+      fileComments = new ArrayList<>();
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean endArray() {
+    if (! comment.isEmpty()) {
+      comment.pop();
+    }
+
+    return true;
+  }
+
+  @Override
+  public boolean primitive(Object value) throws ParseException {
+    if (! comment.isEmpty()) {
+      addToComment(value);
+
+    } else if (keys.equals(LINE_SOURCE)) {
+      line.source = (long) value;
+
+    } else if (keys.equals(LINE_DESTINATION)) {
+      line.destination = (long) value;
+
+    } else if (keys.equals(LINE_COMMENT_IDS)) {
+      if (line.commentIds == null) {
+        line.commentIds = new ArrayList<>();
+      }
+      line.commentIds.add((Long) value);
+
+    } else if (keys.equals(SEGMENT_TYPE)) {
+      type = strings.get((String) value);
+
+    } else if (keys.equals(DIFF_DESTINATION_PATH)) {
+      path = strings.get((String) value);
+    }
+
+    return true;
+  }
+
+  /**
+   * Add a value to the JSON comment being built: containers become the current container until they end.
+   */
+  private void addToComment(Object value) {
+    Object container = comment.peek();
+    if (container instanceof JSONArray) {
+      ((JSONArray) container).add(value);
+    } else {
+      ((JSONObject) container).put(commentKeys.peek(), value);
+    }
+
+    if ((value instanceof JSONObject) || (value instanceof JSONArray)) {
+      comment.push(value);
+    }
+  }
+
+  /**
+   * Add to the report the diffs of the file which has just been read.
+   */
+  private void addDiffs() {
+
+    // destination path in diff view
+    // if status of the file is deleted, destination == null
+    if ((path != null) && hasHunks) {
+      for (DiffLine diffLine : lines) {
+        List<StashComment> comments = Collections.emptyList();
+
+        // Add comment attached to the current line
+        if (diffLine.commentIds != null) {
+          comments = new ArrayList<>();
+          for (Long commentId : diffLine.commentIds) {
+            JSONObject jsonLineComment = lineComments.get(commentId);
+            if (jsonLineComment != null) {
+              StashComment lineComment = extractComment(jsonLineComment, diffLine.destination);
+              if (lineComment != null) {
+                comments.add(lineComment);
+              }
+            }
+          }
+        }
+
+        // lines are added to the report without building a StashDiff for each of them
+        report.add(diffLine.type, path, diffLine.source, diffLine.destination, comments);
+      }
+
+      // Extract File Comments: this kind of comment will be attached to line 0
+      if (fileComments != null) {
+        List<StashComment> comments = new ArrayList<>();
+
+        for (JSONObject jsonFileComment : fileComments) {
+          StashComment fileComment = extractComment(jsonFileComment, 0);
+          if (fileComment != null) {
+            comments.add(fileComment);
+          }
+        }
+
+        report.add(StashPlugin.CONTEXT_ISSUE_TYPE, path, 0, 0, comments);
+      }
+    }
+
+    lines = null;
+    lineComments = null;
+    fileComments = null;
+  }
+
+  private StashComment extractComment(JSONObject jsonComment, long destination) {
+    StashComment result = null;
+
+    JSONObject jsonAuthor = (JSONObject) jsonComment.get("author");
+    if (jsonAuthor != null) {
+      long id = (long) jsonComment.get("id");
+      String message = strings.get((String) jsonComment.get("text"));
+      long version = (long) jsonComment.get("version");
+
+      StashUser author = StashCollector.extractUser(jsonAuthor, users);
+      result = new StashComment(id, message, path, destination, author, version);
+    }
+
+    return result;
+  }
+
+  /**
+   * Line of the diff view, waiting for its file to be completely read.
+   */
+  private static class DiffLine {
+    private String type;
+    private long source;
+    private long destination;
+
+    // most lines have no comment: list is allocated with the first one
+    private List<Long> commentIds;
+  }
+}
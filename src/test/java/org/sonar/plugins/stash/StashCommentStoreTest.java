@@ -0,0 +1,109 @@
+package org.sonar.plugins.stash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.stash.issue.SonarQubeIssue;
+import org.sonar.plugins.stash.issue.StashComment;
+
+public class StashCommentStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  SonarQubeIssue issue1;
+  SonarQubeIssue issue2;
+
+  @Before
+  public void setUp() {
+    issue1 = new SonarQubeIssue("key1", "severity1", "message1", "rule1", "path/to/file1", 1);
+    issue2 = new SonarQubeIssue("key2", "severity2", "message2", "rule2", "path/to/file2", 2);
+  }
+
+  @Test
+  public void testLoadWithoutPreviousAnalysis() throws Exception {
+    StashCommentStore store = new StashCommentStore(folder.getRoot(), "Project", "Repository", "1");
+
+    assertFalse(store.load());
+    assertFalse(store.isLoaded());
+    assertTrue(store.getStaleComments().isEmpty());
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    StashCommentStore store = new StashCommentStore(folder.getRoot(), "Project", "Repository", "1");
+    store.add(issue1, "markdown1", new StashComment(1234, "markdown1", "path/to/file1", 10L, null, 2));
+    store.add(issue2, "markdown2", new StashComment(5678, "markdown2", "path/to/file2", 20L, null, 0));
+    store.save();
+
+    StashCommentStore nextStore = new StashCommentStore(folder.getRoot(), "Project", "Repository", "1");
+    assertTrue(nextStore.load());
+    assertTrue(nextStore.isLoaded());
+
+    // comments are anchored to the issue lines
+    StashComment comment = nextStore.getPreviousComment("markdown1", "path/to/file1", 1);
+    assertEquals(comment.getId(), 1234);
+    assertEquals(comment.getVersion(), 2);
+    assertNull(nextStore.getPreviousComment("markdown1", "path/to/file1", 10));
+
+    // comments not recorded again belong to disappeared issues
+    nextStore.add(issue1, "markdown1", comment);
+    List<StashComment> staleComments = nextStore.getStaleComments();
+    assertEquals(staleComments.size(), 1);
+    assertEquals(staleComments.get(0).getId(), 5678);
+
+    nextStore.keep(staleComments.get(0));
+    assertTrue(nextStore.getStaleComments().isEmpty());
+    assertEquals(nextStore.size(), 2);
+  }
+
+  @Test
+  public void testStoresArePerPullRequest() throws Exception {
+    StashCommentStore store = new StashCommentStore(folder.getRoot(), "Project", "Repository", "1");
+    store.add(issue1, "markdown1", new StashComment(1234, "markdown1", "path/to/file1", 1L, null, 0));
+    store.save();
+
+    assertFalse(new StashCommentStore(folder.getRoot(), "Project", "Repository", "2").load());
+    assertFalse(new StashCommentStore(folder.getRoot(), "Project", "Repository/1", "").load());
+  }
+
+  @Test
+  public void testDelete() throws Exception {
+    StashCommentStore store = new StashCommentStore(folder.getRoot(), "Project", "Repository", "1");
+    store.save();
+    assertTrue(store.getFile().isFile());
+
+    store.delete();
+    assertFalse(store.getFile().exists());
+    assertFalse(new StashCommentStore(folder.getRoot(), "Project", "Repository", "1").load());
+  }
+
+  @Test(expected = IOException.class)
+  public void testLoadCorruptedStore() throws Exception {
+    StashCommentStore store = new StashCommentStore(folder.getRoot(), "Project", "Repository", "1");
+    Files.write(store.getFile().toPath(), "{\"comments\": [{\"id\": \"".getBytes(StandardCharsets.UTF_8));
+
+    store.load();
+  }
+
+  @Test
+  public void testSaveCreatesStateDirectory() throws Exception {
+    File directory = new File(folder.getRoot(), "state/dir");
+    StashCommentStore store = new StashCommentStore(directory, "Project", "Repository", "1");
+    store.save();
+
+    assertTrue(store.getFile().isFile());
+  }
+}
@@ -1,5 +1,9 @@
 package org.sonar.plugins.stash;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -8,6 +12,7 @@ import static org.mockito.Mockito.when;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.sonar.api.batch.SensorContext;
@@ -15,9 +20,11 @@ import org.sonar.api.issue.ProjectIssues;
 import org.sonar.api.resources.Project;
 import org.sonar.plugins.stash.client.StashClient;
 import org.sonar.plugins.stash.client.StashCredentials;
+import org.sonar.plugins.stash.issue.IssueMarkdownCache;
 import org.sonar.plugins.stash.issue.SonarQubeIssuesReport;
 import org.sonar.plugins.stash.issue.StashDiffReport;
 import org.sonar.plugins.stash.issue.StashUser;
+import org.sonar.plugins.stash.issue.StringDictionary;
 
 
 public class StashIssueReportingPostJobTest {
@@ -51,6 +58,9 @@ public class StashIssueReportingPostJobTest {
   @Mock
   SensorContext context;
   
+  @Mock
+  StashClient stashClient;
+  
   private static final String STASH_PROJECT = "Project";
   private static final String STASH_REPOSITORY = "Repository";
   private static final String STASH_PULLREQUEST_ID = "1";
@@ -84,16 +94,18 @@ public class StashIssueReportingPostJobTest {
     when(config.hasToNotifyStash()).thenReturn(true);
    
     stashRequestFacade = mock(StashRequestFacade.class);
+    stashClient = mock(StashClient.class);
     
     sqReport = mock(SonarQubeIssuesReport.class);
     when(sqReport.countIssues()).thenReturn(10);
-    when(stashRequestFacade.extractIssueReport(projectIssues, inputFileCache)).thenReturn(sqReport);
+    when(stashRequestFacade.extractIssueReport(eq(projectIssues), eq(inputFileCache), any(StringDictionary.class), eq(diffReport))).thenReturn(sqReport);
     
     when(stashRequestFacade.getIssueThreshold()).thenReturn(STASH_ISSUE_THRESHOLD);
     when(stashRequestFacade.getStashProject()).thenReturn(STASH_PROJECT);
     when(stashRequestFacade.getStashRepository()).thenReturn(STASH_REPOSITORY);
     when(stashRequestFacade.getStashPullRequestId()).thenReturn(STASH_PULLREQUEST_ID);
     when(stashRequestFacade.getCredentials()).thenReturn(new StashCredentials(STASH_LOGIN, STASH_PASSWORD));
+    when(stashRequestFacade.createStashClient(any(StringDictionary.class))).thenReturn(stashClient);
     when(stashRequestFacade.getSonarQubeReviewer(Mockito.anyString(), (StashClient) Mockito.anyObject())).thenReturn(stashUser);
     when(stashRequestFacade.getPullRequestDiffReport(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), (StashClient) Mockito.anyObject())).thenReturn(diffReport);
     when(stashRequestFacade.getIssueThreshold()).thenReturn(STASH_ISSUE_THRESHOLD);
@@ -104,27 +116,55 @@ public class StashIssueReportingPostJobTest {
     myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
     myJob.executeOn(project, context);
     
-    verify(stashRequestFacade, times(0)).resetComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(1)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).reconcileComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), any(SonarQubeIssuesReport.class), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(1)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).approvePullRequest(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).resetPullRequestApproval(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
   }
   
+  @Test
+  public void testExecuteOnClosesStashClient() throws Exception {
+    myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
+    myJob.executeOn(project, context);
+    
+    // one client for the whole post job
+    verify(stashRequestFacade, times(1)).createStashClient(any(StringDictionary.class));
+    verify(stashClient, times(1)).close();
+  }
+  
+  @Test
+  public void testExecuteOnSharesIssueMarkdowns() throws Exception {
+    myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
+    myJob.executeOn(project, context);
+    
+    // markdown printed for the comments is reused by the overview, and is not kept by the facade from one post job to the next
+    ArgumentCaptor<IssueMarkdownCache> commentMarkdowns = ArgumentCaptor.forClass(IssueMarkdownCache.class);
+    verify(stashRequestFacade).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), commentMarkdowns.capture(), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
+    ArgumentCaptor<IssueMarkdownCache> overviewMarkdowns = ArgumentCaptor.forClass(IssueMarkdownCache.class);
+    verify(stashRequestFacade).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), overviewMarkdowns.capture(), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
+    assertSame(overviewMarkdowns.getValue(), commentMarkdowns.getValue());
+    assertEquals(commentMarkdowns.getValue().getSonarQubeURL(), SONARQUBE_URL);
+    
+    myJob.executeOn(project, context);
+    verify(stashRequestFacade, times(2)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), overviewMarkdowns.capture(), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
+    assertNotSame(overviewMarkdowns.getValue(), commentMarkdowns.getValue());
+  }
+  
   @Test
   public void testExecuteOnWithReachedThreshold() throws Exception {
     when(stashRequestFacade.getIssueThreshold()).thenReturn(100);
     
     SonarQubeIssuesReport report = mock(SonarQubeIssuesReport.class);
     when(report.countIssues()).thenReturn(101);
-    when(stashRequestFacade.extractIssueReport(projectIssues, inputFileCache)).thenReturn(report);
+    when(stashRequestFacade.extractIssueReport(eq(projectIssues), eq(inputFileCache), any(StringDictionary.class), eq(diffReport))).thenReturn(report);
     
     myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
     myJob.executeOn(project, context);
     
-    verify(stashRequestFacade, times(0)).resetComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(0)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(report), eq(diffReport), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(STASH_ISSUE_THRESHOLD), eq(report), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).reconcileComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), any(SonarQubeIssuesReport.class), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(report), eq(diffReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(STASH_ISSUE_THRESHOLD), eq(report), (StashClient) Mockito.anyObject());
    }
   
   @Test
@@ -134,9 +174,9 @@ public class StashIssueReportingPostJobTest {
     myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
     myJob.executeOn(project, context);
     
-    verify(stashRequestFacade, times(0)).resetComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(0)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(0)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).reconcileComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), any(SonarQubeIssuesReport.class), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).approvePullRequest(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).resetPullRequestApproval(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
  }
@@ -148,9 +188,9 @@ public class StashIssueReportingPostJobTest {
     myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
     myJob.executeOn(project, context);
     
-    verify(stashRequestFacade, times(0)).resetComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(0)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(0)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).reconcileComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), any(SonarQubeIssuesReport.class), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).approvePullRequest(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).resetPullRequestApproval(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
  }
@@ -162,9 +202,25 @@ public class StashIssueReportingPostJobTest {
     myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
     myJob.executeOn(project, context);
     
-    verify(stashRequestFacade, times(1)).resetComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(1)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
+    // comments are reconciled with the issues instead of being reset and posted again
+    verify(stashRequestFacade, times(1)).reconcileComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(sqReport), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
+  }
+  
+  @Test
+  public void testExecuteOnWithResetCommentActivatedAndTooManyIssues() throws Exception {
+    when(config.resetComments()).thenReturn(true);
+    when(sqReport.countIssues()).thenReturn(STASH_ISSUE_THRESHOLD);
+
+    myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
+    myJob.executeOn(project, context);
+    
+    // all the comments are deleted, like no issue can be displayed
+    ArgumentCaptor<SonarQubeIssuesReport> reconciledReport = ArgumentCaptor.forClass(SonarQubeIssuesReport.class);
+    verify(stashRequestFacade, times(1)).reconcileComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), reconciledReport.capture(), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
+    assertEquals(reconciledReport.getValue().countIssues(), 0);
+    verify(stashRequestFacade, times(0)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
   }
   
   @Test
@@ -175,9 +231,9 @@ public class StashIssueReportingPostJobTest {
     myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
     myJob.executeOn(project, context);
     
-    verify(stashRequestFacade, times(0)).resetComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(0)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(0)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).reconcileComments(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), any(SonarQubeIssuesReport.class), eq(diffReport), eq(stashUser), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(sqReport), eq(diffReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(0)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(STASH_ISSUE_THRESHOLD), eq(sqReport), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).approvePullRequest(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).resetPullRequestApproval(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
   }
@@ -188,13 +244,13 @@ public class StashIssueReportingPostJobTest {
     
     SonarQubeIssuesReport report = mock(SonarQubeIssuesReport.class);
     when(report.countIssues()).thenReturn(0);
-    when(stashRequestFacade.extractIssueReport(projectIssues, inputFileCache)).thenReturn(report);
+    when(stashRequestFacade.extractIssueReport(eq(projectIssues), eq(inputFileCache), any(StringDictionary.class), eq(diffReport))).thenReturn(report);
     
     myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
     myJob.executeOn(project, context);
     
-    verify(stashRequestFacade, times(1)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(report), eq(diffReport), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(STASH_ISSUE_THRESHOLD), eq(report), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(1)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(report), eq(diffReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(STASH_ISSUE_THRESHOLD), eq(report), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(1)).approvePullRequest(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).resetPullRequestApproval(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
   }
@@ -205,13 +261,13 @@ public class StashIssueReportingPostJobTest {
     
     SonarQubeIssuesReport report = mock(SonarQubeIssuesReport.class);
     when(report.countIssues()).thenReturn(10);
-    when(stashRequestFacade.extractIssueReport(projectIssues, inputFileCache)).thenReturn(report);
+    when(stashRequestFacade.extractIssueReport(eq(projectIssues), eq(inputFileCache), any(StringDictionary.class), eq(diffReport))).thenReturn(report);
     
     myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
     myJob.executeOn(project, context);
     
-    verify(stashRequestFacade, times(1)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(report), eq(diffReport), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(STASH_ISSUE_THRESHOLD), eq(report), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(1)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(report), eq(diffReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(STASH_ISSUE_THRESHOLD), eq(report), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).approvePullRequest(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(1)).resetPullRequestApproval(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
   }
@@ -222,13 +278,13 @@ public class StashIssueReportingPostJobTest {
     
     SonarQubeIssuesReport report = mock(SonarQubeIssuesReport.class);
     when(report.countIssues()).thenReturn(0);
-    when(stashRequestFacade.extractIssueReport(projectIssues, inputFileCache)).thenReturn(report);
+    when(stashRequestFacade.extractIssueReport(eq(projectIssues), eq(inputFileCache), any(StringDictionary.class), eq(diffReport))).thenReturn(report);
     
     myJob = new StashIssueReportingPostJob(config, projectIssues, inputFileCache, stashRequestFacade);
     myJob.executeOn(project, context);
  
-    verify(stashRequestFacade, times(1)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(report), eq(diffReport), (StashClient) Mockito.anyObject());
-    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(SONARQUBE_URL), eq(STASH_ISSUE_THRESHOLD), eq(report), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(1)).postCommentPerIssue(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(report), eq(diffReport), (StashClient) Mockito.anyObject());
+    verify(stashRequestFacade, times(1)).postAnalysisOverview(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), any(IssueMarkdownCache.class), eq(STASH_ISSUE_THRESHOLD), eq(report), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).approvePullRequest(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
     verify(stashRequestFacade, times(0)).resetPullRequestApproval(eq(STASH_PROJECT), eq(STASH_REPOSITORY), eq(STASH_PULLREQUEST_ID), eq(STASH_LOGIN), (StashClient) Mockito.anyObject());
   }
@@ -0,0 +1,238 @@
+package org.sonar.plugins.stash;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.sonar.api.config.Settings;
+import org.sonar.api.issue.ProjectIssues;
+import org.sonar.plugins.stash.client.FakeStashServer;
+import org.sonar.plugins.stash.client.FakeStashServer.Endpoint;
+import org.sonar.plugins.stash.issue.DiffFilter;
+import org.sonar.plugins.stash.issue.SonarQubeIssuesReport;
+import org.sonar.plugins.stash.issue.StringDictionary;
+import org.sonar.plugins.stash.issue.collector.SyntheticPullRequest;
+
+/**
+ * Load test of the whole post job against a local Stash stand-in, over a synthetic pull-request.
+ *
+ * Usage from the test classpath:
+ * StashLoadDriver [diffLines] [issues] [parallelism] [latency (ms)] [error rate] [throttle rate]
+ */
+public class StashLoadDriver {
+
+  static final String STASH_PROJECT = "Project";
+  static final String STASH_REPOSITORY = "Repository";
+  static final String STASH_PULLREQUEST_ID = "1";
+
+  private static final String SONARQUBE_URL = "http://sonar/url";
+
+  private int diffLines = 10000;
+  private int issues = 1000;
+  private int parallelism = 1;
+  private int commentPageSize = 100;
+  private boolean resetComments;
+  private boolean approval = true;
+  private File incrementalStateDir;
+  private File responseCacheDir;
+
+  private final Map<Endpoint, Long> latencies = new EnumMap<>(Endpoint.class);
+  private final Map<Endpoint, Double> errorRates = new EnumMap<>(Endpoint.class);
+  private final Map<Endpoint, Double> throttleRates = new EnumMap<>(Endpoint.class);
+
+  public StashLoadDriver setDiffLines(int diffLines) {
+    this.diffLines = diffLines;
+    return this;
+  }
+
+  public StashLoadDriver setIssues(int issues) {
+    this.issues = issues;
+    return this;
+  }
+
+  public StashLoadDriver setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  public StashLoadDriver setCommentPageSize(int commentPageSize) {
+    this.commentPageSize = commentPageSize;
+    return this;
+  }
+
+  public StashLoadDriver setResetComments(boolean resetComments) {
+    this.resetComments = resetComments;
+    return this;
+  }
+
+  public StashLoadDriver setApproval(boolean approval) {
+    this.approval = approval;
+    return this;
+  }
+
+  /**
+   * Run in incremental mode, keeping track of the posted comments in the given directory (null to disable).
+   */
+  public StashLoadDriver setIncrementalStateDir(File incrementalStateDir) {
+    this.incrementalStateDir = incrementalStateDir;
+    return this;
+  }
+
+  /**
+   * Cache the pull-request, user and diff responses in the given directory (null to disable).
+   */
+  public StashLoadDriver setResponseCacheDir(File responseCacheDir) {
+    this.responseCacheDir = responseCacheDir;
+    return this;
+  }
+
+  /**
+   * Same latency, error and throttle rates for all endpoints.
+   */
+  public StashLoadDriver setFaults(long latency, double errorRate, double throttleRate) {
+    for (Endpoint endpoint : Endpoint.values()) {
+      setFaults(endpoint, latency, errorRate, throttleRate);
+    }
+    return this;
+  }
+
+  public StashLoadDriver setFaults(Endpoint endpoint, long latency, double errorRate, double throttleRate) {
+    latencies.put(endpoint, latency);
+    errorRates.put(endpoint, errorRate);
+    throttleRates.put(endpoint, throttleRate);
+    return this;
+  }
+
+  /**
+   * Run the post job once against a fresh Stash stand-in.
+   */
+  public Result run() throws IOException {
+    try (FakeStashServer server = new FakeStashServer()) {
+      return run(server);
+    }
+  }
+
+  /**
+   * Run the post job against the given Stash stand-in, which keeps the comments of the previous runs.
+   */
+  public Result run(FakeStashServer server) {
+    server.setDiff(SyntheticPullRequest.diffJson(diffLines));
+    for (Endpoint endpoint : Endpoint.values()) {
+      server.setLatency(endpoint, latencies.containsKey(endpoint) ? latencies.get(endpoint) : 0);
+      server.setErrorRate(endpoint, errorRates.containsKey(endpoint) ? errorRates.get(endpoint) : 0);
+      server.setThrottleRate(endpoint, throttleRates.containsKey(endpoint) ? throttleRates.get(endpoint) : 0);
+    }
+
+    Map<Endpoint, Integer> initialCounts = new EnumMap<>(Endpoint.class);
+    for (Endpoint endpoint : Endpoint.values()) {
+      initialCounts.put(endpoint, server.getRequestCount(endpoint));
+    }
+
+    StashPluginConfiguration config = new StashPluginConfiguration(getSettings(server));
+    final SonarQubeIssuesReport issueReport = SyntheticPullRequest.issueReport(issues, diffLines);
+    StashRequestFacade facade = new StashRequestFacade(config) {
+      @Override
+      public SonarQubeIssuesReport extractIssueReport(ProjectIssues projectIssues, InputFileCache inputFileCache, StringDictionary strings,
+          DiffFilter diffFilter) {
+        return issueReport;
+      }
+    };
+
+    StashIssueReportingPostJob job = new StashIssueReportingPostJob(config, null, null, facade);
+
+    long start = System.nanoTime();
+    job.executeOn(null, null);
+    long wallTime = (System.nanoTime() - start) / 1000000;
+
+    Map<Endpoint, Integer> requestCounts = new EnumMap<>(Endpoint.class);
+    for (Endpoint endpoint : Endpoint.values()) {
+      requestCounts.put(endpoint, server.getRequestCount(endpoint) - initialCounts.get(endpoint));
+    }
+
+    return new Result(wallTime, requestCounts);
+  }
+
+  private Settings getSettings(FakeStashServer server) {
+    Settings settings = new Settings();
+    settings.setProperty(StashPlugin.STASH_NOTIFICATION, true);
+    settings.setProperty(StashPlugin.STASH_URL, server.getUrl());
+    settings.setProperty(StashPlugin.STASH_LOGIN, FakeStashServer.USER_SLUG);
+    settings.setProperty(StashPlugin.STASH_PASSWORD, "password");
+    settings.setProperty(StashPlugin.STASH_PROJECT, STASH_PROJECT);
+    settings.setProperty(StashPlugin.STASH_REPOSITORY, STASH_REPOSITORY);
+    settings.setProperty(StashPlugin.STASH_PULL_REQUEST_ID, STASH_PULLREQUEST_ID);
+    settings.setProperty(StashPlugin.SONARQUBE_URL, SONARQUBE_URL);
+    settings.setProperty(StashPlugin.STASH_ISSUE_THRESHOLD, Integer.MAX_VALUE);
+    settings.setProperty(StashPlugin.STASH_TIMEOUT, 60000);
+    settings.setProperty(StashPlugin.STASH_MAX_CONNECTIONS_PER_HOST, Math.max(10, parallelism));
+    settings.setProperty(StashPlugin.STASH_POST_PARALLELISM, parallelism);
+    settings.setProperty(StashPlugin.STASH_COMMENT_PAGE_SIZE, commentPageSize);
+    settings.setProperty(StashPlugin.STASH_RESET_COMMENTS, resetComments);
+    settings.setProperty(StashPlugin.STASH_REVIEWER_APPROVAL, approval);
+    if (incrementalStateDir != null) {
+      settings.setProperty(StashPlugin.STASH_INCREMENTAL_MODE, true);
+      settings.setProperty(StashPlugin.STASH_INCREMENTAL_STATE_DIR, incrementalStateDir.getPath());
+    }
+    if (responseCacheDir != null) {
+      settings.setProperty(StashPlugin.STASH_CACHE_DIR, responseCacheDir.getPath());
+      settings.setProperty(StashPlugin.STASH_CACHE_SIZE, 100);
+    }
+    return settings;
+  }
+
+  /**
+   * Wall time and number of requests received by each Stash endpoint during a run.
+   */
+  public static class Result {
+
+    private final long wallTime;
+    private final Map<Endpoint, Integer> requestCounts;
+
+    Result(long wallTime, Map<Endpoint, Integer> requestCounts) {
+      this.wallTime = wallTime;
+      this.requestCounts = requestCounts;
+    }
+
+    public long getWallTime() {
+      return wallTime;
+    }
+
+    public int getRequestCount(Endpoint endpoint) {
+      return requestCounts.get(endpoint);
+    }
+
+    public int getRequestCount() {
+      int result = 0;
+      for (Integer count : requestCounts.values()) {
+        result += count;
+      }
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "Wall time: " + wallTime + " ms, requests: " + getRequestCount() + " " + requestCounts;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    StashLoadDriver driver = new StashLoadDriver();
+    if (args.length > 0) {
+      driver.setDiffLines(Integer.parseInt(args[0]));
+    }
+    if (args.length > 1) {
+      driver.setIssues(Integer.parseInt(args[1]));
+    }
+    if (args.length > 2) {
+      driver.setParallelism(Integer.parseInt(args[2]));
+    }
+    if (args.length > 3) {
+      driver.setFaults(Long.parseLong(args[3]),
+          (args.length > 4) ? Double.parseDouble(args[4]) : 0,
+          (args.length > 5) ? Double.parseDouble(args[5]) : 0);
+    }
+
+    System.out.println(driver.run());
+  }
+}
@@ -0,0 +1,120 @@
+package org.sonar.plugins.stash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.plugins.stash.client.FakeStashServer;
+import org.sonar.plugins.stash.client.FakeStashServer.Endpoint;
+
+public class StashLoadDriverTest {
+
+  private static final int DIFF_LINES = 1000;
+  private static final int ISSUES = 60;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  FakeStashServer server;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeStashServer();
+  }
+
+  @After
+  public void tearDown() {
+    server.close();
+  }
+
+  @Test
+  public void testRun() throws Exception {
+    StashLoadDriver.Result result = new StashLoadDriver().setDiffLines(DIFF_LINES).setIssues(ISSUES).run(server);
+
+    // issues on REMOVED lines do not belong to the diff view, and the overview is posted as a global comment
+    int postedComments = server.getComments().size();
+    assertTrue(postedComments > 1);
+    assertTrue(postedComments <= ISSUES + 1);
+    assertEquals(result.getRequestCount(Endpoint.COMMENTS), postedComments + 10);
+
+    assertEquals(result.getRequestCount(Endpoint.DIFF), 1);
+    assertEquals(server.getReviewerCount(), 1);
+    assertFalse(server.isApproved());
+  }
+
+  @Test
+  public void testRunTwice() throws Exception {
+    StashLoadDriver driver = new StashLoadDriver().setDiffLines(DIFF_LINES).setIssues(ISSUES);
+    driver.run(server);
+    int postedComments = server.getComments().size();
+
+    driver.run(server);
+
+    // comments already pushed are not posted again, only the overview is
+    assertEquals(server.getComments().size(), postedComments + 1);
+  }
+
+  @Test
+  public void testRunTwiceIncrementally() throws Exception {
+    StashLoadDriver driver = new StashLoadDriver().setDiffLines(DIFF_LINES).setIssues(ISSUES).setIncrementalStateDir(folder.getRoot());
+    driver.run(server);
+    int postedComments = server.getComments().size();
+
+    // some issues have been fixed since the previous analysis
+    StashLoadDriver.Result result = driver.setIssues(ISSUES / 2).run(server);
+
+    // comments are neither fetched nor posted again, only the overview is posted
+    assertEquals(result.getRequestCount(Endpoint.COMMENTS), 1);
+    assertTrue(result.getRequestCount(Endpoint.COMMENT) > 0);
+    assertEquals(server.getComments().size(), postedComments + 1 - result.getRequestCount(Endpoint.COMMENT));
+  }
+
+  @Test
+  public void testRunTwiceWithResponseCache() throws Exception {
+    StashLoadDriver driver = new StashLoadDriver().setDiffLines(DIFF_LINES).setIssues(ISSUES).setResponseCacheDir(folder.getRoot());
+    driver.run(server);
+    assertEquals(server.getNotModifiedCount(), 0);
+
+    driver.run(server);
+
+    // user and diff are not downloaded again, the pull-request has been updated by the reviewer addition
+    assertEquals(server.getNotModifiedCount(), 2);
+
+    driver.run(server);
+    assertEquals(server.getNotModifiedCount(), 5);
+  }
+
+  @Test
+  public void testRunInParallel() throws Exception {
+    new StashLoadDriver().setDiffLines(DIFF_LINES).setIssues(ISSUES).run(server);
+    int postedComments = server.getComments().size();
+
+    try (FakeStashServer parallelServer = new FakeStashServer()) {
+      new StashLoadDriver().setDiffLines(DIFF_LINES).setIssues(ISSUES).setParallelism(4).run(parallelServer);
+
+      assertEquals(parallelServer.getComments().size(), postedComments);
+    }
+  }
+
+  @Test
+  public void testRunWithThrottledComments() throws Exception {
+    StashLoadDriver.Result result = new StashLoadDriver().setDiffLines(DIFF_LINES).setIssues(ISSUES)
+        .setFaults(Endpoint.COMMENTS, 0, 0, 1).run(server);
+
+    assertEquals(server.getComments().size(), 0);
+    assertTrue(result.getRequestCount(Endpoint.COMMENTS) > 0);
+  }
+
+  @Test
+  public void testRunWithLatency() throws Exception {
+    StashLoadDriver.Result result = new StashLoadDriver().setDiffLines(DIFF_LINES).setIssues(ISSUES)
+        .setFaults(Endpoint.DIFF, 200, 0, 0).run(server);
+
+    assertTrue(result.getWallTime() >= 200);
+  }
+}
@@ -0,0 +1,175 @@
+package org.sonar.plugins.stash;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.CoreProperties;
+import org.sonar.api.batch.bootstrap.ProjectBuilder;
+import org.sonar.api.batch.bootstrap.ProjectDefinition;
+import org.sonar.api.batch.bootstrap.ProjectReactor;
+import org.sonar.plugins.stash.client.StashClient;
+import org.sonar.plugins.stash.issue.StringDictionary;
+
+public class StashProjectBuilderTest {
+
+  private static final String STASH_PROJECT = "Project";
+  private static final String STASH_REPOSITORY = "Repository";
+  private static final String STASH_PULLREQUEST_ID = "1";
+
+  ProjectDefinition root;
+  ProjectDefinition module1;
+  ProjectDefinition module2;
+  ProjectReactor reactor;
+
+  ProjectBuilder.Context context;
+  StashPluginConfiguration config;
+  StashRequestFacade stashRequestFacade;
+  StashClient stashClient;
+
+  StashProjectBuilder builder;
+
+  @Before
+  public void setUp() throws Exception {
+    File baseDir = new File("baseDir");
+
+    root = ProjectDefinition.create().setKey("root").setBaseDir(baseDir).setWorkDir(new File(baseDir, "work"));
+    module1 = ProjectDefinition.create().setKey("module1").setBaseDir(new File(baseDir, "module1"));
+    module2 = ProjectDefinition.create().setKey("module2").setBaseDir(new File(baseDir, "module2"));
+    reactor = new ProjectReactor(root);
+
+    context = mock(ProjectBuilder.Context.class);
+    when(context.projectReactor()).thenReturn(reactor);
+
+    config = mock(StashPluginConfiguration.class);
+    when(config.hasToNotifyStash()).thenReturn(true);
+    when(config.isPullRequestScope()).thenReturn(true);
+
+    stashClient = mock(StashClient.class);
+
+    stashRequestFacade = mock(StashRequestFacade.class);
+    when(stashRequestFacade.getStashProject()).thenReturn(STASH_PROJECT);
+    when(stashRequestFacade.getStashRepository()).thenReturn(STASH_REPOSITORY);
+    when(stashRequestFacade.getStashPullRequestId()).thenReturn(STASH_PULLREQUEST_ID);
+
+    when(stashRequestFacade.createStashClient(any(StringDictionary.class))).thenReturn(stashClient);
+
+    builder = new StashProjectBuilder(config, stashRequestFacade);
+  }
+
+  @Test
+  public void testBuild() throws Exception {
+    when(config.isPullRequestScope()).thenReturn(false);
+
+    builder.build(context);
+
+    verify(stashRequestFacade, times(1)).initialize(root.getBaseDir(), root.getWorkDir());
+    verify(stashRequestFacade, times(0)).createStashClient(any(StringDictionary.class));
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_INCLUSIONS_PROPERTY), null);
+  }
+
+  @Test
+  public void testBuildWithPullRequestScope() {
+    when(stashRequestFacade.getPullRequestChanges(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashClient))
+        .thenReturn(Arrays.asList("src/path1", "src/path2"));
+
+    builder.build(context);
+
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_INCLUSIONS_PROPERTY), "src/path1,src/path2");
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_TEST_INCLUSIONS_PROPERTY), "src/path1,src/path2");
+    verify(stashClient, times(1)).close();
+  }
+
+  @Test
+  public void testBuildWithPullRequestScopeAndNoChanges() {
+    when(stashRequestFacade.getPullRequestChanges(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashClient))
+        .thenReturn(null);
+
+    builder.build(context);
+
+    // whole project is analysed
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_INCLUSIONS_PROPERTY), null);
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_EXCLUSIONS_PROPERTY), null);
+  }
+
+  @Test
+  public void testRestrictToChangesOfMultiModuleProject() {
+    root.addSubProject(module1);
+    root.addSubProject(module2);
+
+    StashProjectBuilder.restrictToChanges(reactor, Arrays.asList("module1/src/path1", "module1/src/path2", "other/path3"), 0);
+
+    assertEquals(module1.getProperties().getProperty(CoreProperties.PROJECT_INCLUSIONS_PROPERTY), "src/path1,src/path2");
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_INCLUSIONS_PROPERTY), "other/path3");
+
+    // modules without changes are not analysed at all
+    assertEquals(root.getSubProjects(), Arrays.asList(module1));
+    assertEquals(reactor.getProjects().size(), 2);
+  }
+
+  @Test
+  public void testRestrictToChangesOfSubModule() {
+    root.addSubProject(module1);
+    module2 = ProjectDefinition.create().setKey("module2").setBaseDir(new File(module1.getBaseDir(), "module2"));
+    module1.addSubProject(module2);
+
+    StashProjectBuilder.restrictToChanges(reactor, Arrays.asList("module1/module2/src/path1"), 0);
+
+    assertEquals(module2.getProperties().getProperty(CoreProperties.PROJECT_INCLUSIONS_PROPERTY), "src/path1");
+
+    // aggregator modules are kept for their sub-modules, without any file
+    assertEquals(reactor.getProjects().size(), 3);
+    assertEquals(module1.getProperties().getProperty(CoreProperties.PROJECT_EXCLUSIONS_PROPERTY), "**/*");
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_EXCLUSIONS_PROPERTY), "**/*");
+  }
+
+  @Test
+  public void testRestrictToChangesWithUserInclusions() {
+    root.setProperty(CoreProperties.PROJECT_INCLUSIONS_PROPERTY, "src/main/**/*.java, src/other/**");
+    root.setProperty(CoreProperties.PROJECT_TEST_INCLUSIONS_PROPERTY, "src/test/**");
+
+    StashProjectBuilder.restrictToChanges(reactor, Arrays.asList("src/main/path/Path1.java", "src/main/path/path2.xml", "src/other/path3"), 1);
+
+    // user inclusions are intersected with the changed files, neighbourhood cannot be
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_INCLUSIONS_PROPERTY), "src/main/path/Path1.java,src/other/path3");
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_TEST_INCLUSIONS_PROPERTY), "src/test/**");
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_TEST_EXCLUSIONS_PROPERTY), "**/*");
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_EXCLUSIONS_PROPERTY), null);
+  }
+
+  @Test
+  public void testRestrictToNoChanges() {
+    root.addSubProject(module1);
+
+    StashProjectBuilder.restrictToChanges(reactor, new ArrayList<String>(), 0);
+
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_EXCLUSIONS_PROPERTY), "**/*");
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_TEST_EXCLUSIONS_PROPERTY), "**/*");
+    assertEquals(reactor.getProjects().size(), 1);
+  }
+
+  @Test
+  public void testRestrictToChangesWithNeighbourhood() {
+    StashProjectBuilder.restrictToChanges(reactor, Arrays.asList("src/main/path1", "src/main/path2", "src/test/path3"), 1);
+
+    assertEquals(root.getProperties().getProperty(CoreProperties.PROJECT_INCLUSIONS_PROPERTY), "src/main/**,src/test/**");
+  }
+
+  @Test
+  public void testGetInclusionPattern() {
+    assertEquals(StashProjectBuilder.getInclusionPattern("src/main/Path1.java", 0), "src/main/Path1.java");
+    assertEquals(StashProjectBuilder.getInclusionPattern("src/main/Path1.java", 1), "src/main/**");
+    assertEquals(StashProjectBuilder.getInclusionPattern("src/main/Path1.java", 2), "src/**");
+    assertEquals(StashProjectBuilder.getInclusionPattern("src/main/Path1.java", 3), "**");
+    assertEquals(StashProjectBuilder.getInclusionPattern("src/main/Path1.java", 10), "**");
+  }
+}
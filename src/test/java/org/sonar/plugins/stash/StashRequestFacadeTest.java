@@ -3,6 +3,7 @@ package org.sonar.plugins.stash;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doNothing;
@@ -13,25 +14,32 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.sonar.plugins.stash.client.StashClient;
 import org.sonar.plugins.stash.client.StashCredentials;
 import org.sonar.plugins.stash.exceptions.StashClientException;
 import org.sonar.plugins.stash.exceptions.StashConfigurationException;
+import org.sonar.plugins.stash.issue.IssueMarkdownCache;
 import org.sonar.plugins.stash.issue.MarkdownPrinter;
 import org.sonar.plugins.stash.issue.SonarQubeIssue;
 import org.sonar.plugins.stash.issue.SonarQubeIssuesReport;
 import org.sonar.plugins.stash.issue.StashComment;
+import org.sonar.plugins.stash.issue.StashCommentDeletionReport;
 import org.sonar.plugins.stash.issue.StashCommentReport;
 import org.sonar.plugins.stash.issue.StashDiffReport;
 import org.sonar.plugins.stash.issue.StashPullRequest;
 import org.sonar.plugins.stash.issue.StashUser;
+import org.sonar.plugins.stash.issue.StringDictionary;
 
 public class StashRequestFacadeTest {
   
@@ -40,6 +48,9 @@ public class StashRequestFacadeTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
   
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  
   @Mock
   StashPluginConfiguration config;
   
@@ -174,6 +185,25 @@ public class StashRequestFacadeTest {
     myFacade.getStashURL();
   }
   
+  @Test
+  public void testCreateStashClient() throws StashConfigurationException {
+    when(config.getStashURL()).thenReturn("http://url");
+    when(config.getStashMaxConnectionsPerHost()).thenReturn(2);
+    when(config.getPostParallelism()).thenReturn(4);
+    when(config.getResponseCacheDir()).thenReturn(folder.getRoot().getPath());
+    when(config.getRateLimit()).thenReturn(10);
+    
+    try (StashClient client = myFacade.createStashClient(new StringDictionary())) {
+      assertTrue(client != null);
+    }
+  }
+  
+  @Test (expected = StashConfigurationException.class)
+  public void testCreateStashClientWithoutURL() throws StashConfigurationException {
+    when(config.getStashURL()).thenReturn(null);
+    myFacade.createStashClient(new StringDictionary());
+  }
+  
   @Test
   public void testGetStashProject() throws StashConfigurationException {
     when(config.getStashProject()).thenReturn("project");
@@ -216,7 +246,7 @@ public class StashRequestFacadeTest {
     when(stashCommentsReport1.contains(stashCommentMessage2, FILE_PATH_1, 2)).thenReturn(false);
     when(stashCommentsReport2.contains(stashCommentMessage3, FILE_PATH_2, 1)).thenReturn(false);
     
-    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, SONARQUBE_URL, issueReport, diffReport, stashClient);
+    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashClient);
     
     verify(stashClient, times(0)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage1, FILE_PATH_1, 1, STASH_DIFF_TYPE);
     verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
@@ -229,7 +259,7 @@ public class StashRequestFacadeTest {
     when(stashCommentsReport1.contains(stashCommentMessage2, FILE_PATH_1, 2)).thenReturn(true);
     when(stashCommentsReport2.contains(stashCommentMessage3, FILE_PATH_2, 1)).thenReturn(true);
     
-    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, SONARQUBE_URL, issueReport, diffReport, stashClient);
+    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashClient);
     
     verify(stashClient, times(0)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage1, FILE_PATH_1, 1, STASH_DIFF_TYPE);
     verify(stashClient, times(0)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
@@ -246,7 +276,7 @@ public class StashRequestFacadeTest {
     when(diffReport.getType(FILE_PATH_1, 2)).thenReturn(STASH_DIFF_TYPE);
     when(diffReport.getType(FILE_PATH_2, 1)).thenReturn(null);
     
-    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, SONARQUBE_URL, issueReport, diffReport, stashClient);
+    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashClient);
     
     verify(stashClient, times(0)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage1, FILE_PATH_1, 1, STASH_DIFF_TYPE);
     verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
@@ -255,7 +285,7 @@ public class StashRequestFacadeTest {
   
   @Test
   public void testPostCommentPerIssueWithNoSonarQubeIssues() throws Exception{
-    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, SONARQUBE_URL, new SonarQubeIssuesReport(), diffReport, stashClient);
+    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), new SonarQubeIssuesReport(), diffReport, stashClient);
     
     verify(stashClient, times(0)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage1, FILE_PATH_1, 1, STASH_DIFF_TYPE);
     verify(stashClient, times(0)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
@@ -272,7 +302,7 @@ public class StashRequestFacadeTest {
       .postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
     
     try {
-    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, SONARQUBE_URL, issueReport, diffReport, stashClient);
+    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashClient);
     
     verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage1, FILE_PATH_1, 1, STASH_DIFF_TYPE);
     verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
@@ -283,6 +313,129 @@ public class StashRequestFacadeTest {
     }
   }
   
+  @Test
+  public void testPostCommentPerIssueInParallel() throws Exception{
+    when(config.getPostParallelism()).thenReturn(2);
+    
+    when(stashCommentsReport1.contains(stashCommentMessage1, FILE_PATH_1, 1)).thenReturn(true);
+    when(stashCommentsReport1.contains(stashCommentMessage2, FILE_PATH_1, 2)).thenReturn(false);
+    when(stashCommentsReport2.contains(stashCommentMessage3, FILE_PATH_2, 1)).thenReturn(false);
+    
+    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashClient);
+    
+    verify(stashClient, times(0)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage1, FILE_PATH_1, 1, STASH_DIFF_TYPE);
+    verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
+    verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage3, FILE_PATH_2, 1, STASH_DIFF_TYPE);
+  }
+  
+  @Test
+  public void testPostCommentPerIssueInParallelWithExceptions() throws Exception {
+    when(config.getPostParallelism()).thenReturn(2);
+    
+    when(stashCommentsReport1.contains(stashCommentMessage1, FILE_PATH_1, 1)).thenReturn(false);
+    when(stashCommentsReport1.contains(stashCommentMessage2, FILE_PATH_1, 2)).thenReturn(false);
+    when(stashCommentsReport2.contains(stashCommentMessage3, FILE_PATH_2, 1)).thenReturn(false);
+    
+    doThrow(new StashClientException("StashClientException for Test")).when(stashClient)
+      .postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
+    
+    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashClient);
+    
+    // a failed post does not prevent the other comments from being posted
+    verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage1, FILE_PATH_1, 1, STASH_DIFF_TYPE);
+    verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
+    verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage3, FILE_PATH_2, 1, STASH_DIFF_TYPE);
+  }
+  
+  @Test
+  public void testPostCommentPerIssueFetchesCommentsInParallel() throws Exception{
+    when(config.getPostParallelism()).thenReturn(2);
+    
+    when(stashCommentsReport1.contains(stashCommentMessage1, FILE_PATH_1, 1)).thenReturn(true);
+    when(stashCommentsReport1.contains(stashCommentMessage2, FILE_PATH_1, 2)).thenReturn(true);
+    when(stashCommentsReport2.contains(stashCommentMessage3, FILE_PATH_2, 1)).thenReturn(false);
+    
+    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashClient);
+    
+    // comments are requested once per file
+    verify(stashClient, times(1)).getPullRequestComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, FILE_PATH_1);
+    verify(stashClient, times(1)).getPullRequestComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, FILE_PATH_2);
+    
+    verify(stashClient, times(0)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage1, FILE_PATH_1, 1, STASH_DIFF_TYPE);
+    verify(stashClient, times(0)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
+    verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage3, FILE_PATH_2, 1, STASH_DIFF_TYPE);
+  }
+  
+  @Test
+  public void testPostCommentPerIssueInParallelWithCommentFetchExceptions() throws Exception {
+    when(config.getPostParallelism()).thenReturn(2);
+    
+    when(stashClient.getPullRequestComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, FILE_PATH_2))
+      .thenThrow(new StashClientException("StashClientException for Test"));
+    
+    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashClient);
+    
+    // nothing is posted if existing comments cannot be checked
+    verify(stashClient, times(0)).postCommentLineOnPullRequest(anyString(), anyString(), anyString(), anyString(), anyString(), anyLong(), anyString());
+  }
+  
+  @Test
+  public void testPostCommentPerIssueIncrementally() throws Exception {
+    when(config.isIncrementalMode()).thenReturn(true);
+    when(config.getIncrementalStateDir()).thenReturn(folder.getRoot().getPath());
+    
+    StashComment comment1 = new StashComment(1, stashCommentMessage1, FILE_PATH_1, 1L, stashUser, 0);
+    when(stashCommentsReport1.contains(stashCommentMessage1, FILE_PATH_1, 1)).thenReturn(true);
+    when(stashCommentsReport1.getComment(stashCommentMessage1, FILE_PATH_1, 1)).thenReturn(comment1);
+    when(stashClient.createCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE))
+      .thenReturn(new StashComment(2, stashCommentMessage2, FILE_PATH_1, 2L, stashUser, 0));
+    when(stashClient.createCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage3, FILE_PATH_2, 1, STASH_DIFF_TYPE))
+      .thenReturn(new StashComment(3, stashCommentMessage3, FILE_PATH_2, 1L, stashUser, 0));
+    
+    // first analysis: existing comments are checked on Stash
+    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashClient);
+    
+    verify(stashClient, times(1)).getPullRequestComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, FILE_PATH_1);
+    verify(stashClient, times(0)).createCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage1, FILE_PATH_1, 1, STASH_DIFF_TYPE);
+    verify(stashClient, times(1)).createCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
+    verify(stashClient, times(1)).createCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage3, FILE_PATH_2, 1, STASH_DIFF_TYPE);
+    
+    // next analysis: issue 3 has been fixed, and a new issue has been raised
+    SonarQubeIssuesReport nextIssueReport = new SonarQubeIssuesReport();
+    nextIssueReport.add(issueReport.getIssues().get(0));
+    nextIssueReport.add(issueReport.getIssues().get(1));
+    SonarQubeIssue issue4 = new SonarQubeIssue("key4", "severity4", "message4", "rule4", FILE_PATH_2, 1);
+    String stashCommentMessage4 = MarkdownPrinter.printIssueMarkdown(issue4, SONARQUBE_URL);
+    nextIssueReport.add(issue4);
+    when(stashClient.createCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage4, FILE_PATH_2, 1, STASH_DIFF_TYPE))
+      .thenReturn(new StashComment(4, stashCommentMessage4, FILE_PATH_2, 1L, stashUser, 0));
+    
+    myFacade.postCommentPerIssue(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), nextIssueReport, diffReport, stashClient);
+    
+    // comments are known from the previous analysis
+    verify(stashClient, times(1)).getPullRequestComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, FILE_PATH_1);
+    verify(stashClient, times(1)).getPullRequestComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, FILE_PATH_2);
+    verify(stashClient, times(1)).createCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
+    verify(stashClient, times(1)).createCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage4, FILE_PATH_2, 1, STASH_DIFF_TYPE);
+    
+    ArgumentCaptor<StashComment> deletedComment = ArgumentCaptor.forClass(StashComment.class);
+    verify(stashClient, times(1)).deletePullRequestComment(Mockito.eq(STASH_PROJECT), Mockito.eq(STASH_REPOSITORY), Mockito.eq(STASH_PULLREQUEST_ID), deletedComment.capture());
+    assertEquals(deletedComment.getValue().getId(), 3);
+  }
+  
+  @Test
+  public void testReconcileCommentsForgetsStoredComments() throws Exception {
+    when(config.isIncrementalMode()).thenReturn(true);
+    when(config.getIncrementalStateDir()).thenReturn(folder.getRoot().getPath());
+    
+    StashCommentStore commentStore = new StashCommentStore(folder.getRoot(), STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID);
+    commentStore.save();
+    
+    myFacade.reconcileComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashUser, stashClient);
+    
+    assertFalse(commentStore.getFile().exists());
+  }
+  
   @Test
   public void testGetSonarQubeReviewer() throws Exception {
     when(stashClient.getUser(STASH_USER)).thenReturn(stashUser);
@@ -320,14 +473,31 @@ public class StashRequestFacadeTest {
   }
   
   @Test
-  public void testResetComments() throws Exception {
-    myFacade.resetComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, diffReport, stashUser, stashClient);
+  public void testGetPullRequestChanges() throws Exception {
+    when(stashClient.getPullRequestChanges(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID)).thenReturn(Arrays.asList(FILE_PATH_1, FILE_PATH_2));
+    
+    List<String> result = myFacade.getPullRequestChanges(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashClient);
+    assertEquals(result, Arrays.asList(FILE_PATH_1, FILE_PATH_2));
+  }
+  
+  @Test
+  public void testGetPullRequestChangesWithException() throws Exception {
+    doThrow(new StashClientException("StashClientException for Test")).when(stashClient)
+      .getPullRequestChanges(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID);
+  
+    List<String> result = myFacade.getPullRequestChanges(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashClient);
+    assertEquals(result, null);
+  }
+  
+  @Test
+  public void testReconcileCommentsWithoutIssues() throws Exception {
+    myFacade.reconcileComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), new SonarQubeIssuesReport(), diffReport, stashUser, stashClient);
     
     verify(stashClient, times(1)).deletePullRequestComment(Mockito.eq(STASH_PROJECT), Mockito.eq(STASH_REPOSITORY), Mockito.eq(STASH_PULLREQUEST_ID), (StashComment) Mockito.anyObject());
   }
   
   @Test
-  public void testResetCommentsWithDifferentStashUsers() throws Exception {
+  public void testReconcileCommentsWithDifferentStashUsers() throws Exception {
     StashUser stashUser2 = mock(StashUser.class);
     when(stashUser2.getId()).thenReturn((long) 4321);
     
@@ -339,20 +509,118 @@ public class StashRequestFacadeTest {
     
     when(diffReport.getComments()).thenReturn(comments);
     
-    myFacade.resetComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, diffReport, stashUser, stashClient);
+    myFacade.reconcileComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), new SonarQubeIssuesReport(), diffReport, stashUser, stashClient);
     
     verify(stashClient, times(0)).deletePullRequestComment(Mockito.eq(STASH_PROJECT), Mockito.eq(STASH_REPOSITORY), Mockito.eq(STASH_PULLREQUEST_ID), (StashComment) Mockito.anyObject());
   }
   
   @Test
-  public void testResetCommentsWithoutAnyComments() throws Exception {
+  public void testReconcileCommentsWithoutAnyComments() throws Exception {
     when(diffReport.getComments()).thenReturn(new ArrayList<StashComment>());
     
-    myFacade.resetComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, diffReport, stashUser, stashClient);
+    myFacade.reconcileComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), new SonarQubeIssuesReport(), diffReport, stashUser, stashClient);
     
     verify(stashClient, times(0)).deletePullRequestComment(Mockito.eq(STASH_PROJECT), Mockito.eq(STASH_REPOSITORY), Mockito.eq(STASH_PULLREQUEST_ID), (StashComment) Mockito.anyObject());
   }
 
+  @Test
+  public void testReconcileCommentsDeletesInParallel() throws Exception {
+    when(config.getPostParallelism()).thenReturn(2);
+    
+    ArrayList<StashComment> comments = new ArrayList<>();
+    for (long id = 1; id <= 3; id++) {
+      StashComment comment = mock(StashComment.class);
+      when(comment.getId()).thenReturn(id);
+      when(comment.getAuthor()).thenReturn(stashUser);
+      comments.add(comment);
+    }
+    when(diffReport.getComments()).thenReturn(comments);
+    
+    StashCommentDeletionReport report = myFacade.reconcileComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), new SonarQubeIssuesReport(), diffReport, stashUser, stashClient);
+    
+    verify(stashClient, times(3)).deletePullRequestComment(Mockito.eq(STASH_PROJECT), Mockito.eq(STASH_REPOSITORY), Mockito.eq(STASH_PULLREQUEST_ID), (StashComment) Mockito.anyObject());
+    assertEquals(report.countDeleted(), 3);
+    assertEquals(report.countFailed(), 0);
+  }
+  
+  @Test
+  public void testReconcileCommentsWithDeletionExceptions() throws Exception {
+    StashComment comment1 = mock(StashComment.class);
+    when(comment1.getAuthor()).thenReturn(stashUser);
+    
+    StashComment comment2 = mock(StashComment.class);
+    when(comment2.getAuthor()).thenReturn(stashUser);
+    
+    ArrayList<StashComment> comments = new ArrayList<>();
+    comments.add(comment1);
+    comments.add(comment2);
+    when(diffReport.getComments()).thenReturn(comments);
+    
+    doThrow(new StashClientException("StashClientException for Test")).when(stashClient)
+      .deletePullRequestComment(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, comment1);
+    
+    StashCommentDeletionReport report = myFacade.reconcileComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), new SonarQubeIssuesReport(), diffReport, stashUser, stashClient);
+    
+    // a failed deletion does not prevent the other comments from being deleted
+    verify(stashClient, times(1)).deletePullRequestComment(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, comment2);
+    assertEquals(report.getDeletedComments().size(), 1);
+    assertEquals(report.getDeletedComments().get(0), comment2);
+    assertEquals(report.getFailedComments().size(), 1);
+    assertEquals(report.getFailedComments().get(comment1), "StashClientException for Test");
+  }
+  
+  @Test
+  public void testReconcileComments() throws Exception {
+    reconcileComments();
+  }
+  
+  @Test
+  public void testReconcileCommentsInParallel() throws Exception {
+    when(config.getPostParallelism()).thenReturn(2);
+    
+    reconcileComments();
+  }
+  
+  private void reconcileComments() throws Exception {
+    StashUser stashUser2 = mock(StashUser.class);
+    when(stashUser2.getId()).thenReturn((long) 4321);
+    
+    // issue 1 already commented twice, issue 2 not commented, issue 3 commented only by someone else, and a comment of a fixed issue
+    ArrayList<StashComment> comments = new ArrayList<>();
+    comments.add(new StashComment(1, stashCommentMessage1, FILE_PATH_1, 1L, stashUser, 0));
+    comments.add(new StashComment(2, stashCommentMessage1, FILE_PATH_1, 1L, stashUser, 0));
+    comments.add(new StashComment(3, stashCommentMessage3, FILE_PATH_2, 1L, stashUser2, 0));
+    comments.add(new StashComment(4, "fixed issue", FILE_PATH_2, 1L, stashUser, 0));
+    when(diffReport.getComments()).thenReturn(comments);
+    
+    myFacade.reconcileComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashUser, stashClient);
+    
+    ArgumentCaptor<StashComment> deletedComments = ArgumentCaptor.forClass(StashComment.class);
+    verify(stashClient, times(2)).deletePullRequestComment(Mockito.eq(STASH_PROJECT), Mockito.eq(STASH_REPOSITORY), Mockito.eq(STASH_PULLREQUEST_ID), deletedComments.capture());
+    assertEquals(deletedComments.getAllValues().size(), 2);
+    assertTrue(deletedComments.getAllValues().contains(comments.get(1)));
+    assertTrue(deletedComments.getAllValues().contains(comments.get(3)));
+    
+    verify(stashClient, times(0)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage1, FILE_PATH_1, 1, STASH_DIFF_TYPE);
+    verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
+    verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage3, FILE_PATH_2, 1, STASH_DIFF_TYPE);
+    
+    // existing comments are taken from the diff view
+    verify(stashClient, times(0)).getPullRequestComments(anyString(), anyString(), anyString(), anyString());
+  }
+  
+  @Test
+  public void testReconcileCommentsWithExceptions() throws Exception {
+    doThrow(new StashClientException("StashClientException for Test")).when(stashClient)
+      .postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage1, FILE_PATH_1, 1, STASH_DIFF_TYPE);
+    
+    myFacade.reconcileComments(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, new IssueMarkdownCache(SONARQUBE_URL), issueReport, diffReport, stashUser, stashClient);
+    
+    // a failed comment does not prevent the other ones from being created
+    verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage2, FILE_PATH_1, 2, STASH_DIFF_TYPE);
+    verify(stashClient, times(1)).postCommentLineOnPullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, stashCommentMessage3, FILE_PATH_2, 1, STASH_DIFF_TYPE);
+  }
+  
   @Test
   public void testApprovePullRequest() throws Exception {
     myFacade.approvePullRequest(STASH_PROJECT, STASH_REPOSITORY, STASH_PULLREQUEST_ID, "sonarqube", stashClient);
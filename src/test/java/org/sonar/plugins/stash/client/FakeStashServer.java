@@ -0,0 +1,469 @@
+package org.sonar.plugins.stash.client;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in of the Stash REST API used by StashClient, for end-to-end and load tests.
+ *
+ * The server holds a single pull-request: its diff view is given as is, comments posted through the API are stored and
+ * served back by file, with Stash paging. Each endpoint can be slowed down, or fail randomly with 500 or 429 responses.
+ */
+public class FakeStashServer implements AutoCloseable {
+
+  public static final String USER_SLUG = "sonarqube";
+  public static final long USER_ID = 1;
+  public static final String USER_NAME = "SonarQube";
+
+  private static final String REST_API = "/rest/api/1.0/";
+  private static final int DEFAULT_PAGE_SIZE = 25;
+  private static final String RETRY_AFTER_SECONDS = "1";
+
+  // ids of the posted comments must not collide with the comment ids of the given diff view
+  private static final long FIRST_COMMENT_ID = 1000000;
+
+  private static final Pattern USER_PATTERN = Pattern.compile("users/([^/]+)");
+  private static final Pattern PULL_REQUEST_PATTERN = Pattern.compile("projects/[^/]+/repos/[^/]+/pull-requests/[^/]+");
+  private static final Pattern DIFF_PATTERN = Pattern.compile("projects/[^/]+/repos/[^/]+/pull-requests/[^/]+/diff");
+  private static final Pattern COMMENTS_PATTERN = Pattern.compile("projects/[^/]+/repos/[^/]+/pull-requests/[^/]+/comments");
+  private static final Pattern COMMENT_PATTERN = Pattern.compile("projects/[^/]+/repos/[^/]+/pull-requests/[^/]+/comments/(\\d+)");
+  private static final Pattern APPROVAL_PATTERN = Pattern.compile("projects/[^/]+/repos/[^/]+/pull-requests/[^/]+/approve");
+
+  /**
+   * Stash REST endpoints, each with its own latency, error rates and request count.
+   */
+  public enum Endpoint {
+    USER, PULL_REQUEST, DIFF, COMMENTS, COMMENT, APPROVAL
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Random random = new Random(0);
+
+  private final Map<Endpoint, Long> latencies = new EnumMap<>(Endpoint.class);
+  private final Map<Endpoint, Double> errorRates = new EnumMap<>(Endpoint.class);
+  private final Map<Endpoint, Double> throttleRates = new EnumMap<>(Endpoint.class);
+  private final Map<Endpoint, AtomicInteger> requestCounts = new EnumMap<>(Endpoint.class);
+  private final AtomicInteger notModifiedCount = new AtomicInteger();
+
+  private String diffJson = "{\"diffs\": []}";
+  private final Map<Long, JSONObject> comments = new HashMap<>();
+  private long commentSequence = FIRST_COMMENT_ID;
+  private long pullRequestVersion;
+  private JSONArray reviewers = new JSONArray();
+  private boolean approved;
+
+  public FakeStashServer() throws IOException {
+    for (Endpoint endpoint : Endpoint.values()) {
+      requestCounts.put(endpoint, new AtomicInteger());
+    }
+
+    // without TCP_NODELAY, each response is delayed by the TCP acknowledgement of its headers
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext(REST_API, new StashHandler());
+
+    executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Base URL to give to StashClient.
+   */
+  public String getUrl() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  public synchronized void setDiff(String json) {
+    this.diffJson = json;
+  }
+
+  public synchronized void setLatency(Endpoint endpoint, long millis) {
+    latencies.put(endpoint, millis);
+  }
+
+  /**
+   * Ratio of requests, between 0 and 1, answered by a 500 error.
+   */
+  public synchronized void setErrorRate(Endpoint endpoint, double rate) {
+    errorRates.put(endpoint, rate);
+  }
+
+  /**
+   * Ratio of requests, between 0 and 1, answered by a 429 error with a Retry-After header.
+   */
+  public synchronized void setThrottleRate(Endpoint endpoint, double rate) {
+    throttleRates.put(endpoint, rate);
+  }
+
+  public int getRequestCount(Endpoint endpoint) {
+    return requestCounts.get(endpoint).get();
+  }
+
+  public int getRequestCount() {
+    int result = 0;
+    for (AtomicInteger count : requestCounts.values()) {
+      result += count.get();
+    }
+
+    return result;
+  }
+
+  /**
+   * Number of conditional requests answered by a 304, the client holding the current body.
+   */
+  public int getNotModifiedCount() {
+    return notModifiedCount.get();
+  }
+
+  /**
+   * Comments currently stored, whatever their file.
+   */
+  public synchronized List<JSONObject> getComments() {
+    return new ArrayList<>(comments.values());
+  }
+
+  public synchronized boolean isApproved() {
+    return approved;
+  }
+
+  public synchronized int getReviewerCount() {
+    return reviewers.size();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private class StashHandler implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        String method = exchange.getRequestMethod();
+        String resource = exchange.getRequestURI().getPath().substring(REST_API.length());
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+
+        Endpoint endpoint = getEndpoint(resource);
+        if (endpoint == null) {
+          send(exchange, HttpURLConnection.HTTP_NOT_FOUND, null);
+          return;
+        }
+        requestCounts.get(endpoint).incrementAndGet();
+
+        if (injectFault(exchange, endpoint)) {
+          return;
+        }
+
+        switch (endpoint) {
+          case USER:
+            handleUser(exchange, resource);
+            break;
+          case PULL_REQUEST:
+            handlePullRequest(exchange, method);
+            break;
+          case DIFF:
+            sendRevalidated(exchange, getDiff());
+            break;
+          case COMMENTS:
+            handleComments(exchange, method, parameters);
+            break;
+          case COMMENT:
+            handleComment(exchange, method, resource);
+            break;
+          default:
+            handleApproval(exchange, method);
+            break;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        send(exchange, HttpURLConnection.HTTP_UNAVAILABLE, null);
+      } catch (ParseException e) {
+        send(exchange, HttpURLConnection.HTTP_BAD_REQUEST, null);
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  private static Endpoint getEndpoint(String resource) {
+    Endpoint result = null;
+
+    if (USER_PATTERN.matcher(resource).matches()) {
+      result = Endpoint.USER;
+    } else if (PULL_REQUEST_PATTERN.matcher(resource).matches()) {
+      result = Endpoint.PULL_REQUEST;
+    } else if (DIFF_PATTERN.matcher(resource).matches()) {
+      result = Endpoint.DIFF;
+    } else if (COMMENTS_PATTERN.matcher(resource).matches()) {
+      result = Endpoint.COMMENTS;
+    } else if (COMMENT_PATTERN.matcher(resource).matches()) {
+      result = Endpoint.COMMENT;
+    } else if (APPROVAL_PATTERN.matcher(resource).matches()) {
+      result = Endpoint.APPROVAL;
+    }
+
+    return result;
+  }
+
+  /**
+   * Apply the latency of the endpoint, then answer with an error according to its error rates.
+   * @return true if the request has been answered by an error
+   */
+  private boolean injectFault(HttpExchange exchange, Endpoint endpoint) throws IOException, InterruptedException {
+    long latency;
+    double draw;
+    double throttleRate;
+    double errorRate;
+    synchronized (this) {
+      latency = latencies.containsKey(endpoint) ? latencies.get(endpoint) : 0;
+      throttleRate = throttleRates.containsKey(endpoint) ? throttleRates.get(endpoint) : 0;
+      errorRate = errorRates.containsKey(endpoint) ? errorRates.get(endpoint) : 0;
+      draw = random.nextDouble();
+    }
+
+    if (latency > 0) {
+      Thread.sleep(latency);
+    }
+
+    boolean result = true;
+    if (draw < throttleRate) {
+      exchange.getResponseHeaders().add("Retry-After", RETRY_AFTER_SECONDS);
+      send(exchange, 429, null);
+    } else if (draw < throttleRate + errorRate) {
+      send(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, null);
+    } else {
+      result = false;
+    }
+
+    return result;
+  }
+
+  private void handleUser(HttpExchange exchange, String resource) throws IOException {
+    Matcher matcher = USER_PATTERN.matcher(resource);
+    matcher.matches();
+
+    if (USER_SLUG.equals(matcher.group(1))) {
+      sendRevalidated(exchange, user().toJSONString());
+    } else {
+      send(exchange, HttpURLConnection.HTTP_NOT_FOUND, null);
+    }
+  }
+
+  private void handlePullRequest(HttpExchange exchange, String method) throws IOException, ParseException {
+    if ("PUT".equals(method)) {
+      JSONObject json = readBody(exchange);
+
+      // like Stash, reviewers are sent back as complete users
+      JSONArray updatedReviewers = new JSONArray();
+      for (Object reviewer : (JSONArray) json.get("reviewers")) {
+        JSONObject jsonUser = (JSONObject) ((JSONObject) reviewer).get("user");
+        JSONObject jsonReviewer = new JSONObject();
+        jsonReviewer.put("user", user(jsonUser.get("name")));
+        updatedReviewers.add(jsonReviewer);
+      }
+
+      synchronized (this) {
+        reviewers = updatedReviewers;
+        pullRequestVersion++;
+      }
+    }
+
+    JSONObject pullRequest = new JSONObject();
+    synchronized (this) {
+      pullRequest.put("version", pullRequestVersion);
+      pullRequest.put("reviewers", reviewers);
+    }
+    if ("PUT".equals(method)) {
+      send(exchange, HttpURLConnection.HTTP_OK, pullRequest.toJSONString());
+    } else {
+      sendRevalidated(exchange, pullRequest.toJSONString());
+    }
+  }
+
+  private void handleComments(HttpExchange exchange, String method, Map<String, String> parameters) throws IOException, ParseException {
+    if ("POST".equals(method)) {
+      JSONObject json = readBody(exchange);
+
+      JSONObject comment = new JSONObject();
+      comment.put("text", json.get("text"));
+      comment.put("author", user());
+      comment.put("version", 0L);
+      if (json.get("anchor") != null) {
+        comment.put("anchor", json.get("anchor"));
+      }
+
+      synchronized (this) {
+        commentSequence++;
+        comment.put("id", commentSequence);
+        comments.put(commentSequence, comment);
+      }
+      send(exchange, HttpURLConnection.HTTP_CREATED, comment.toJSONString());
+
+    } else {
+      send(exchange, HttpURLConnection.HTTP_OK, getCommentPage(parameters));
+    }
+  }
+
+  private void handleComment(HttpExchange exchange, String method, String resource) throws IOException {
+    Matcher matcher = COMMENT_PATTERN.matcher(resource);
+    matcher.matches();
+
+    JSONObject comment = null;
+    if ("DELETE".equals(method)) {
+      synchronized (this) {
+        comment = comments.remove(Long.valueOf(matcher.group(1)));
+      }
+    }
+
+    send(exchange, (comment == null) ? HttpURLConnection.HTTP_NOT_FOUND : HttpURLConnection.HTTP_NO_CONTENT, null);
+  }
+
+  private void handleApproval(HttpExchange exchange, String method) throws IOException {
+    synchronized (this) {
+      approved = "POST".equals(method);
+    }
+    send(exchange, HttpURLConnection.HTTP_OK, "{}");
+  }
+
+  private synchronized String getDiff() {
+    return diffJson;
+  }
+
+  /**
+   * Page of the comments anchored to the requested file, ordered by id.
+   */
+  private synchronized String getCommentPage(Map<String, String> parameters) {
+    String path = parameters.get("path");
+    int start = parameters.containsKey("start") ? Integer.parseInt(parameters.get("start")) : 0;
+    int limit = parameters.containsKey("limit") ? Integer.parseInt(parameters.get("limit")) : DEFAULT_PAGE_SIZE;
+
+    List<Long> ids = new ArrayList<>(comments.keySet());
+    Collections.sort(ids);
+
+    List<JSONObject> fileComments = new ArrayList<>();
+    for (Long id : ids) {
+      JSONObject comment = comments.get(id);
+      JSONObject anchor = (JSONObject) comment.get("anchor");
+      if ((anchor != null) && anchor.get("path").equals(path)) {
+        fileComments.add(comment);
+      }
+    }
+
+    JSONArray values = new JSONArray();
+    int end = Math.min(start + limit, fileComments.size());
+    for (int i = start; i < end; i++) {
+      values.add(fileComments.get(i));
+    }
+
+    JSONObject result = new JSONObject();
+    result.put("values", values);
+    result.put("start", (long) start);
+    result.put("size", (long) values.size());
+    result.put("isLastPage", end >= fileComments.size());
+    if (end < fileComments.size()) {
+      result.put("nextPageStart", (long) end);
+    }
+
+    return result.toJSONString();
+  }
+
+  private static JSONObject user() {
+    JSONObject result = new JSONObject();
+    result.put("id", USER_ID);
+    result.put("name", USER_NAME);
+    result.put("slug", USER_SLUG);
+    result.put("email", "sq@email.com");
+    return result;
+  }
+
+  private static JSONObject user(Object name) {
+    JSONObject result = user();
+    if (! USER_NAME.equals(name)) {
+      result.put("id", 0L);
+      result.put("name", name);
+      result.put("slug", name);
+      result.put("email", null);
+    }
+    return result;
+  }
+
+  private static JSONObject readBody(HttpExchange exchange) throws IOException, ParseException {
+    try (Reader reader = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)) {
+      return (JSONObject) new JSONParser().parse(reader);
+    }
+  }
+
+  private static Map<String, String> parseQuery(String query) throws IOException {
+    Map<String, String> result = new HashMap<>();
+
+    if (query != null) {
+      for (String parameter : query.split("&")) {
+        int separator = parameter.indexOf('=');
+        if (separator > 0) {
+          result.put(parameter.substring(0, separator), URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Send a body with its ETag, or a 304 if the client already holds the same body.
+   */
+  private void sendRevalidated(HttpExchange exchange, String body) throws IOException {
+    String eTag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+    if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      notModifiedCount.incrementAndGet();
+      send(exchange, HttpURLConnection.HTTP_NOT_MODIFIED, null);
+    } else {
+      exchange.getResponseHeaders().add("ETag", eTag);
+      send(exchange, HttpURLConnection.HTTP_OK, body);
+    }
+  }
+
+  private static void send(HttpExchange exchange, int status, String body) throws IOException {
+    if (body == null) {
+      exchange.sendResponseHeaders(status, -1);
+    } else {
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+        output.write(bytes);
+      }
+    }
+  }
+}
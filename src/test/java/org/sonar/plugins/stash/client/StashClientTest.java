@@ -2,6 +2,7 @@ package org.sonar.plugins.stash.client;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
@@ -14,13 +15,19 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.sonar.plugins.stash.exceptions.StashClientException;
@@ -38,6 +45,9 @@ import com.ning.http.client.Response;
 
 public class StashClientTest {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @Mock
   BoundRequestBuilder requestBuilder;
   
@@ -80,13 +90,44 @@ public class StashClientTest {
     doReturn(httpClient).when(spyClient).createHttpClient();
   }
   
+  @Test
+  public void testHttpClientIsSharedBetweenRequests() throws Exception {
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_CREATED);
+    
+    spyClient.postCommentOnPullRequest("Project", "Repository", "1", "Report");
+    spyClient.postCommentLineOnPullRequest("Project", "Repository", "1", "message", "path", 5, "type");
+    
+    verify(spyClient, times(1)).createHttpClient();
+    verify(requestBuilder, times(2)).execute();
+    verify(httpClient, times(0)).close();
+  }
+  
+  @Test
+  public void testClose() throws Exception {
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_CREATED);
+    
+    spyClient.postCommentOnPullRequest("Project", "Repository", "1", "Report");
+    spyClient.close();
+    spyClient.close();
+    
+    verify(httpClient, times(1)).close();
+  }
+  
+  @Test
+  public void testCloseWithoutAnyRequest() throws Exception {
+    spyClient.close();
+    
+    verify(spyClient, times(0)).createHttpClient();
+    verify(httpClient, times(0)).close();
+  }
+  
   @Test
   public void testPostCommentOnPullRequest() throws Exception {
     when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_CREATED);
     
     spyClient.postCommentOnPullRequest("Project", "Repository", "1", "Report");
     verify(requestBuilder, times(1)).execute();
-    verify(httpClient, times(1)).close();
+    verify(httpClient, times(0)).close();
   }
   
   @Test
@@ -100,7 +141,7 @@ public class StashClientTest {
     
     } catch (StashClientException e) {
       verify(response, times(1)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -116,7 +157,7 @@ public class StashClientTest {
     
     } catch (StashClientException e) {
       verify(response, times(0)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -132,7 +173,7 @@ public class StashClientTest {
     
     assertTrue(report.contains("message", "path", 5));
     assertEquals(report.size(), 1);
-    verify(httpClient, times(1)).close();
+    verify(httpClient, times(0)).close();
   }
   
   @Test
@@ -150,7 +191,7 @@ public class StashClientTest {
     assertTrue(report.contains("message1", "path", 1));
     assertTrue(report.contains("message2", "path", 2));
     assertEquals(report.size(), 2);
-    verify(httpClient, times(2)).close();
+    verify(httpClient, times(0)).close();
   }
   
   @Test
@@ -168,7 +209,31 @@ public class StashClientTest {
     assertTrue(report.contains("message1", "path", 5));
     assertFalse(report.contains("message2", "path", 10));
     assertEquals(report.size(), 1);
-    verify(httpClient, times(1)).close();
+    verify(httpClient, times(0)).close();
+  }
+  
+  @Test
+  public void testGetPullRequestCommentsWithPageSize() throws Exception {
+    String stashJsonComment1 = "{\"values\": [{\"id\":1234, \"text\":\"message1\", \"anchor\": {\"path\":\"path\", \"line\":1},"
+        + "\"author\": {\"id\":1, \"name\":\"SonarQube\", \"slug\":\"sonarqube\", \"email\":\"sq@email.com\"}, \"version\": 0}], \"isLastPage\": false, \"nextPageStart\": 1000}";
+    
+    String stashJsonComment2 = "{\"values\": [{\"id\":4321, \"text\":\"message2\", \"anchor\": {\"path\":\"path\", \"line\":2},"
+        + "\"author\": {\"id\":1, \"name\":\"SonarQube\", \"slug\":\"sonarqube\", \"email\":\"sq@email.com\"}, \"version\": 0}], \"isLastPage\": true}";
+    
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_OK);
+    when(response.getResponseBody()).thenReturn(stashJsonComment1, stashJsonComment2);
+    
+    StashClient pagedClient = spy(StashClient.builder("baseUrl", new StashCredentials("login", "password"), 1000).commentPageSize(1000).build());
+    doNothing().when(pagedClient).addAuthorization(requestBuilder);
+    doReturn(httpClient).when(pagedClient).createHttpClient();
+    
+    StashCommentReport report = pagedClient.getPullRequestComments("Project", "Repository", "1", "path");
+    assertEquals(report.size(), 2);
+    
+    verify(httpClient, times(1)).prepareGet("baseUrl/rest/api/1.0/projects/Project/repos/Repository/pull-requests/1/comments?path=path&start=0&limit=1000");
+    verify(httpClient, times(1)).prepareGet("baseUrl/rest/api/1.0/projects/Project/repos/Repository/pull-requests/1/comments?path=path&start=1000&limit=1000");
+    verify(pagedClient, times(1)).createHttpClient();
+    verify(httpClient, times(0)).close();
   }
   
   @Test
@@ -182,7 +247,7 @@ public class StashClientTest {
     
     } catch (StashClientException e) {
       verify(response, times(1)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -198,18 +263,18 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(0)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
 
   @Test
   public void testGetPullRequestDiffs() throws Exception {
     when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_OK);
-    when(response.getResponseBody()).thenReturn(DiffReportSample.baseReport);
+    when(response.getResponseBodyAsStream()).thenReturn(new ByteArrayInputStream(DiffReportSample.baseReport.getBytes(StandardCharsets.UTF_8)));
     
     StashDiffReport report = spyClient.getPullRequestDiffs("Project", "Repository", "1");
     assertEquals(report.getDiffs().size(), 4);
-    verify(httpClient, times(1)).close(); 
+    verify(httpClient, times(0)).close(); 
   }
   
   @Test
@@ -224,7 +289,7 @@ public class StashClientTest {
      
     } catch (StashClientException e) {
       verify(response, times(1)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -240,7 +305,38 @@ public class StashClientTest {
     
     } catch (StashClientException e) {
       verify(response, times(0)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
+    }
+  }
+  
+  @Test
+  public void testGetPullRequestChanges() throws Exception {
+    String stashJsonChanges1 = "{\"values\": [{\"path\": {\"toString\": \"path1\"}, \"type\": \"MODIFY\"}], \"isLastPage\": false, \"nextPageStart\": 1}";
+    String stashJsonChanges2 = "{\"values\": [{\"path\": {\"toString\": \"path2\"}, \"type\": \"ADD\"}], \"isLastPage\": true}";
+    
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_OK);
+    when(response.getResponseBody()).thenReturn(stashJsonChanges1, stashJsonChanges2);
+    
+    List<String> changes = spyClient.getPullRequestChanges("Project", "Repository", "1");
+    assertEquals(changes, Arrays.asList("path1", "path2"));
+    
+    verify(httpClient, times(1)).prepareGet("baseUrl/rest/api/1.0/projects/Project/repos/Repository/pull-requests/1/changes?start=0");
+    verify(httpClient, times(1)).prepareGet("baseUrl/rest/api/1.0/projects/Project/repos/Repository/pull-requests/1/changes?start=1");
+    verify(httpClient, times(0)).close();
+  }
+  
+  @Test
+  public void testGetPullRequestChangesWithWrongHTTPResult() throws Exception {
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_FORBIDDEN);
+    
+    try {
+      spyClient.getPullRequestChanges("Project", "Repository", "1");
+    
+      assertFalse("Wrong HTTP result should raised StashClientException", true);
+     
+    } catch (StashClientException e) {
+      verify(response, times(1)).getStatusText();
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -250,7 +346,19 @@ public class StashClientTest {
     
     spyClient.postCommentLineOnPullRequest("Project", "Repository", "1", "message", "path", 5, "type");
     verify(requestBuilder, times(1)).execute();
-    verify(httpClient, times(1)).close(); 
+    verify(httpClient, times(0)).close(); 
+  }
+  
+  @Test
+  public void testCreateCommentLineOnPullRequest() throws Exception {
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_CREATED);
+    when(response.getResponseBody()).thenReturn("{\"id\":1234, \"text\":\"message\", \"anchor\": {\"path\":\"path\", \"line\":5},"
+        + "\"author\": {\"id\":1, \"name\":\"SonarQube\", \"slug\":\"sonarqube\", \"email\":\"sq@email.com\"}, \"version\":0}");
+    
+    StashComment comment = spyClient.createCommentLineOnPullRequest("Project", "Repository", "1", "message", "path", 5, "type");
+    assertEquals(comment.getId(), 1234);
+    assertEquals(comment.getVersion(), 0);
+    verify(requestBuilder, times(1)).execute();
   }
   
   @Test
@@ -264,7 +372,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(1)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -280,7 +388,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(0)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
 
@@ -298,7 +406,131 @@ public class StashClientTest {
     assertEquals(user.getEmail(), "sq@email.com");
     assertEquals(user.getSlug(), "sonarqube");
     
-    verify(httpClient, times(1)).close(); 
+    verify(httpClient, times(0)).close(); 
+  }
+  
+  @Test
+  public void testGetUserWithRetries() throws Exception {
+    when(response.getStatusCode()).thenReturn(StashRetryPolicy.HTTP_TOO_MANY_REQUESTS, HttpURLConnection.HTTP_UNAVAILABLE, HttpURLConnection.HTTP_OK);
+    when(response.getHeader("Retry-After")).thenReturn("0");
+    
+    String jsonUser = "{\"name\":\"SonarQube\", \"email\":\"sq@email.com\", \"id\":1, \"slug\":\"sonarqube\"}";
+    when(response.getResponseBody()).thenReturn(jsonUser);
+    
+    StashClient retryingClient = createRetryingClient(2);
+    StashUser user = retryingClient.getUser("sonarqube");
+    
+    assertEquals(user.getId(), 1);
+    verify(requestBuilder, times(3)).execute();
+  }
+  
+  @Test
+  public void testGetUserWithTooManyRetries() throws Exception {
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_UNAVAILABLE);
+    
+    StashClient retryingClient = createRetryingClient(2);
+    try {
+      retryingClient.getUser("sonarqube");
+      
+      assertFalse("Unavailable Stash should raise StashClientException once retries are exhausted", true);
+      
+    } catch (StashClientException e) {
+      verify(requestBuilder, times(3)).execute();
+    }
+  }
+  
+  @Test
+  public void testPostCommentLineOnPullRequestWithRetries() throws Exception {
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_UNAVAILABLE);
+    
+    StashClient retryingClient = createRetryingClient(2);
+    try {
+      retryingClient.postCommentLineOnPullRequest("Project", "Repository", "1", "message", "path", 5, "type");
+      
+      assertFalse("Unavailable Stash should raise StashClientException", true);
+      
+    } catch (StashClientException e) {
+      // comment may have been posted: it is not posted again
+      verify(requestBuilder, times(1)).execute();
+    }
+    
+    // throttled comment has not been processed by Stash
+    when(response.getStatusCode()).thenReturn(StashRetryPolicy.HTTP_TOO_MANY_REQUESTS, HttpURLConnection.HTTP_CREATED);
+    retryingClient.postCommentLineOnPullRequest("Project", "Repository", "1", "message", "path", 5, "type");
+    verify(requestBuilder, times(3)).execute();
+  }
+  
+  private StashClient createRetryingClient(int maxRetries) {
+    StashClient result = spy(StashClient.builder("baseUrl", new StashCredentials("login", "password"), 1000)
+        .retryPolicy(new StashRetryPolicy(maxRetries, 0, 1000)).build());
+    doNothing().when(result).addAuthorization(requestBuilder);
+    doReturn(httpClient).when(result).createHttpClient();
+    
+    return result;
+  }
+  
+  @Test
+  public void testGetUserOncePerAnalysis() throws Exception {
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_OK);
+    
+    String jsonUser = "{\"name\":\"SonarQube\", \"email\":\"sq@email.com\", \"id\":1, \"slug\":\"sonarqube\"}";
+    when(response.getResponseBody()).thenReturn(jsonUser);
+    
+    StashUser user = spyClient.getUser("sonarqube");
+    assertSame(spyClient.getUser("sonarqube"), user);
+    verify(httpClient, times(1)).prepareGet("baseUrl/rest/api/1.0/users/sonarqube");
+    
+    // reviewers of the pull-request are known users as well
+    String jsonPullRequest = "{\"version\": 1, \"reviewers\": [{\"user\": {\"name\":\"Reviewer\", \"email\":\"reviewer@email.com\", \"id\":2, \"slug\":\"reviewer\"}}]}";
+    when(response.getResponseBody()).thenReturn(jsonPullRequest);
+    
+    StashUser reviewer = spyClient.getPullRequest("Project", "Repository", "1").getReviewer("reviewer");
+    assertSame(spyClient.getUser("reviewer"), reviewer);
+    verify(httpClient, times(0)).prepareGet("baseUrl/rest/api/1.0/users/reviewer");
+  }
+  
+  @Test
+  public void testGetUserWithResponseCache() throws Exception {
+    StashResponseCache responseCache = new StashResponseCache(folder.getRoot(), 1000);
+    StashClient cachingClient = spy(StashClient.builder("baseUrl", new StashCredentials("login", "password"), 1000).responseCache(responseCache).build());
+    doNothing().when(cachingClient).addAuthorization(requestBuilder);
+    doReturn(httpClient).when(cachingClient).createHttpClient();
+    
+    String jsonUser = "{\"name\":\"SonarQube\", \"email\":\"sq@email.com\", \"id\":1, \"slug\":\"sonarqube\"}";
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_OK);
+    when(response.getHeader("ETag")).thenReturn("\"etag\"");
+    when(response.getResponseBody()).thenReturn(jsonUser);
+    when(response.getResponseBodyAsBytes()).thenReturn(jsonUser.getBytes(StandardCharsets.UTF_8));
+    
+    assertEquals(cachingClient.getUser("sonarqube").getId(), 1);
+    verify(requestBuilder, times(0)).addHeader("If-None-Match", "\"etag\"");
+    
+    // user has not been modified since the previous analysis: cached body is reused
+    StashClient nextCachingClient = spy(StashClient.builder("baseUrl", new StashCredentials("login", "password"), 1000).responseCache(responseCache).build());
+    doNothing().when(nextCachingClient).addAuthorization(requestBuilder);
+    doReturn(httpClient).when(nextCachingClient).createHttpClient();
+    
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_NOT_MODIFIED);
+    when(response.getResponseBody()).thenReturn("");
+    
+    StashUser user = nextCachingClient.getUser("sonarqube");
+    assertEquals(user.getId(), 1);
+    assertEquals(user.getSlug(), "sonarqube");
+    verify(requestBuilder, times(1)).addHeader("If-None-Match", "\"etag\"");
+  }
+  
+  @Test
+  public void testGetUserWithNotModifiedAndNoCachedResponse() throws Exception {
+    when(response.getStatusCode()).thenReturn(HttpURLConnection.HTTP_NOT_MODIFIED);
+    
+    try {
+      spyClient.getUser("sonarqube");
+      
+      assertFalse("Unexpected 304 should raised StashClientException", true);
+      
+    } catch (StashClientException e) {
+      verify(response, times(1)).getStatusText();
+    }
   }
     
   @Test
@@ -312,7 +544,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(1)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -328,7 +560,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(0)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
     
@@ -342,7 +574,7 @@ public class StashClientTest {
     
     spyClient.deletePullRequestComment("Project", "Repository", "1", stashComment);
     verify(requestBuilder, times(1)).execute();
-    verify(httpClient, times(1)).close(); 
+    verify(httpClient, times(0)).close(); 
   }
   
   @Test
@@ -360,7 +592,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(1)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -378,7 +610,7 @@ public class StashClientTest {
     assertEquals(pullRequest.getRepository(), "Repository");
     assertEquals(pullRequest.getVersion(), 1);
     
-    verify(httpClient, times(1)).close(); 
+    verify(httpClient, times(0)).close(); 
   }
     
   @Test
@@ -392,7 +624,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(1)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -408,7 +640,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(0)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -419,7 +651,7 @@ public class StashClientTest {
     spyClient.approvePullRequest("Project", "Repository", "123");
     
     verify(requestBuilder, times(1)).execute();
-    verify(httpClient, times(1)).close(); 
+    verify(httpClient, times(0)).close(); 
   }
     
   @Test
@@ -433,7 +665,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(1)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -449,7 +681,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(0)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
     
@@ -460,7 +692,7 @@ public class StashClientTest {
     spyClient.resetPullRequestApproval("Project", "Repository", "123");
     
     verify(requestBuilder, times(1)).execute();
-    verify(httpClient, times(1)).close(); 
+    verify(httpClient, times(0)).close(); 
   }
     
   @Test
@@ -474,7 +706,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(1)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -494,7 +726,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(0)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -510,7 +742,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(0)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -527,7 +759,7 @@ public class StashClientTest {
     spyClient.addPullRequestReviewer("Project", "Repository", "123", (long) 1, reviewers);
     
     verify(requestBuilder, times(1)).execute();
-    verify(httpClient, times(1)).close(); 
+    verify(httpClient, times(0)).close(); 
   }
   
   @Test
@@ -537,7 +769,7 @@ public class StashClientTest {
     spyClient.addPullRequestReviewer("Project", "Repository", "123", (long) 1, new ArrayList<StashUser>());
     
     verify(requestBuilder, times(1)).execute();
-    verify(httpClient, times(1)).close(); 
+    verify(httpClient, times(0)).close(); 
   }
     
   @Test
@@ -557,7 +789,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(1)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
   
@@ -579,7 +811,7 @@ public class StashClientTest {
       
     } catch (StashClientException e) {
       verify(response, times(0)).getStatusText();
-      verify(httpClient, times(1)).close();  
+      verify(httpClient, times(0)).close();  
     }
   }
 }
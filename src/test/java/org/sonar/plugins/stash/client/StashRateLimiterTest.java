@@ -0,0 +1,72 @@
+package org.sonar.plugins.stash.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StashRateLimiterTest {
+
+  long now;
+  List<Long> waits;
+
+  StashRateLimiter limiter;
+
+  @Before
+  public void setUp() {
+    now = 0;
+    waits = new ArrayList<>();
+
+    limiter = new StashRateLimiter(2) {
+      @Override
+      long nanoTime() {
+        return now;
+      }
+
+      @Override
+      void sleep(long nanos) {
+        waits.add(nanos);
+      }
+    };
+  }
+
+  @Test
+  public void testAcquireWithinCapacity() throws Exception {
+    limiter.acquire();
+    limiter.acquire();
+
+    assertEquals(waits.size(), 0);
+  }
+
+  @Test
+  public void testAcquireBeyondCapacity() throws Exception {
+    limiter.acquire();
+    limiter.acquire();
+
+    // next requests wait for their own token, one after the other
+    limiter.acquire();
+    limiter.acquire();
+    assertEquals(waits.toString(), "[" + TimeUnit.MILLISECONDS.toNanos(500) + ", " + TimeUnit.MILLISECONDS.toNanos(1000) + "]");
+  }
+
+  @Test
+  public void testAcquireAfterRefill() throws Exception {
+    limiter.acquire();
+    limiter.acquire();
+
+    now += TimeUnit.MILLISECONDS.toNanos(500);
+    limiter.acquire();
+    assertEquals(waits.size(), 0);
+
+    // bucket never holds more than its capacity
+    now += TimeUnit.SECONDS.toNanos(10);
+    limiter.acquire();
+    limiter.acquire();
+    limiter.acquire();
+    assertEquals(waits.size(), 1);
+  }
+}
@@ -0,0 +1,123 @@
+package org.sonar.plugins.stash.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StashResponseCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testPutAndGet() throws Exception {
+    StashResponseCache cache = new StashResponseCache(folder.getRoot(), 1000);
+    cache.put("url1", "\"etag1\"", null, body("body1"));
+    cache.put("url2", null, "Mon, 01 Jun 2015 10:00:00 GMT", body("body2"));
+
+    StashResponseCache.Entry entry1 = cache.get("url1");
+    assertEquals(entry1.getETag(), "\"etag1\"");
+    assertNull(entry1.getLastModified());
+    assertEquals(read(entry1), "body1");
+
+    StashResponseCache.Entry entry2 = cache.get("url2");
+    assertNull(entry2.getETag());
+    assertEquals(entry2.getLastModified(), "Mon, 01 Jun 2015 10:00:00 GMT");
+
+    assertNull(cache.get("url3"));
+    assertEquals(cache.getSize(), 10);
+  }
+
+  @Test
+  public void testFileNames() throws Exception {
+    StashResponseCache cache = new StashResponseCache(folder.getRoot(), 1000);
+    cache.put("url1", "\"etag1\"", null, body("body1"));
+
+    // files are named after the SHA-1 of the request: caches of previous versions are still read
+    assertTrue(new File(folder.getRoot(), "edb82d097fc96cfbcd400bc380dc2c65f4a92af3.body").exists());
+    assertTrue(new File(folder.getRoot(), "edb82d097fc96cfbcd400bc380dc2c65f4a92af3.headers").exists());
+  }
+
+  @Test
+  public void testPutReplacesPreviousResponse() throws Exception {
+    StashResponseCache cache = new StashResponseCache(folder.getRoot(), 1000);
+    cache.put("url1", "\"etag1\"", null, body("body1"));
+    cache.put("url1", "\"etag2\"", null, body("new body1"));
+
+    StashResponseCache.Entry entry = cache.get("url1");
+    assertEquals(entry.getETag(), "\"etag2\"");
+    assertEquals(read(entry), "new body1");
+    assertEquals(cache.countEntries(), 1);
+    assertEquals(cache.getSize(), 9);
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() throws Exception {
+    StashResponseCache cache = new StashResponseCache(folder.getRoot(), 10);
+    cache.put("url1", "\"etag1\"", null, body("body1"));
+    cache.put("url2", "\"etag2\"", null, body("body2"));
+
+    // url1 is used again: url2 is the least recently used one
+    assertNotNull(cache.get("url1"));
+    cache.put("url3", "\"etag3\"", null, body("body3"));
+
+    assertNotNull(cache.get("url1"));
+    assertNull(cache.get("url2"));
+    assertNotNull(cache.get("url3"));
+    assertEquals(cache.getSize(), 10);
+  }
+
+  @Test
+  public void testResponseLargerThanCacheIsNotKept() throws Exception {
+    StashResponseCache cache = new StashResponseCache(folder.getRoot(), 4);
+    cache.put("url1", "\"etag1\"", null, body("body1"));
+
+    assertNull(cache.get("url1"));
+    assertEquals(cache.getSize(), 0);
+    assertEquals(folder.getRoot().list().length, 0);
+  }
+
+  @Test
+  public void testEntriesAreKeptBetweenAnalyses() throws Exception {
+    StashResponseCache cache = new StashResponseCache(folder.getRoot(), 1000);
+    cache.put("url1", "\"etag1\"", null, body("body1"));
+
+    StashResponseCache nextCache = new StashResponseCache(folder.getRoot(), 1000);
+    StashResponseCache.Entry entry = nextCache.get("url1");
+    assertEquals(entry.getETag(), "\"etag1\"");
+    assertEquals(read(entry), "body1");
+    assertEquals(nextCache.countEntries(), 1);
+  }
+
+  @Test
+  public void testSmallerBoundEvictsEntriesOfPreviousAnalyses() throws Exception {
+    StashResponseCache cache = new StashResponseCache(folder.getRoot(), 1000);
+    cache.put("url1", "\"etag1\"", null, body("body1"));
+    cache.put("url2", "\"etag2\"", null, body("body2"));
+
+    StashResponseCache nextCache = new StashResponseCache(folder.getRoot(), 5);
+    assertEquals(nextCache.countEntries(), 1);
+    assertEquals(nextCache.getSize(), 5);
+  }
+
+  private static InputStream body(String body) {
+    return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String read(StashResponseCache.Entry entry) throws Exception {
+    try (InputStream body = entry.openBody()) {
+      return IOUtils.toString(body, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package org.sonar.plugins.stash.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.HttpURLConnection;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class StashRetryPolicyTest {
+
+  StashRetryPolicy policy = new StashRetryPolicy(3, 100, 1000);
+
+  @Test
+  public void testGetRetryDelayOfThrottledRequest() {
+    assertEquals(policy.getRetryDelay(0, StashRetryPolicy.HTTP_TOO_MANY_REQUESTS, "2", true), -1);
+    assertEquals(policy.getRetryDelay(0, StashRetryPolicy.HTTP_TOO_MANY_REQUESTS, "1", true), 1000);
+    assertEquals(policy.getRetryDelay(0, StashRetryPolicy.HTTP_TOO_MANY_REQUESTS, "0", false), 0);
+  }
+
+  @Test
+  public void testGetRetryDelayOfUnavailableStash() {
+    long delay = policy.getRetryDelay(0, HttpURLConnection.HTTP_UNAVAILABLE, null, true);
+    assertTrue((delay >= 50) && (delay <= 100));
+
+    // request may have been processed
+    assertEquals(policy.getRetryDelay(0, HttpURLConnection.HTTP_UNAVAILABLE, null, false), -1);
+  }
+
+  @Test
+  public void testGetRetryDelayOfOtherResponses() {
+    assertEquals(policy.getRetryDelay(0, HttpURLConnection.HTTP_OK, null, true), -1);
+    assertEquals(policy.getRetryDelay(0, HttpURLConnection.HTTP_INTERNAL_ERROR, "0", true), -1);
+  }
+
+  @Test
+  public void testGetRetryDelayWithTooManyRetries() {
+    assertEquals(policy.getRetryDelay(2, StashRetryPolicy.HTTP_TOO_MANY_REQUESTS, "0", true), 0);
+    assertEquals(policy.getRetryDelay(3, StashRetryPolicy.HTTP_TOO_MANY_REQUESTS, "0", true), -1);
+    assertEquals(StashRetryPolicy.NO_RETRY.getRetryDelay(0, StashRetryPolicy.HTTP_TOO_MANY_REQUESTS, "0", true), -1);
+  }
+
+  @Test
+  public void testGetBackoff() {
+    for (int i = 0; i < 100; i++) {
+      long backoff = policy.getBackoff(2);
+      assertTrue((backoff >= 200) && (backoff <= 400));
+
+      // exponential backoff is bounded
+      backoff = policy.getBackoff(60);
+      assertTrue((backoff >= 500) && (backoff <= 1000));
+    }
+  }
+
+  @Test
+  public void testParseRetryAfter() {
+    assertEquals(StashRetryPolicy.parseRetryAfter(null), -1);
+    assertEquals(StashRetryPolicy.parseRetryAfter("unknown"), -1);
+    assertEquals(StashRetryPolicy.parseRetryAfter(" 3 "), 3000);
+
+    SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+    long delay = StashRetryPolicy.parseRetryAfter(format.format(new Date(System.currentTimeMillis() + 10000)));
+    assertTrue((delay > 5000) && (delay <= 10000));
+    assertEquals(StashRetryPolicy.parseRetryAfter(format.format(new Date(0))), 0);
+  }
+}
@@ -0,0 +1,24 @@
+package org.sonar.plugins.stash.issue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class IssueMarkdownCacheTest {
+
+  @Test
+  public void testGet() {
+    SonarQubeIssue issue1 = new SonarQubeIssue("key1", "BLOCKER", "message1", "rule1", "path1", 1);
+    SonarQubeIssue issue2 = new SonarQubeIssue("key2", "BLOCKER", "message1", "rule1", "path1", 1);
+
+    IssueMarkdownCache issueMarkdowns = new IssueMarkdownCache("sonarqube/URL");
+    String markdown = issueMarkdowns.get(issue1);
+    assertEquals(markdown, "*BLOCKER* - message1 [[rule1](sonarqube/URL/coding_rules#rule_key=rule1)]");
+
+    // markdown is printed once per issue
+    assertSame(issueMarkdowns.get(issue1), markdown);
+    assertEquals(issueMarkdowns.get(issue2), markdown);
+    assertEquals(issueMarkdowns.size(), 2);
+  }
+}
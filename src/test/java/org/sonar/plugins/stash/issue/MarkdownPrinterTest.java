@@ -1,5 +1,6 @@
 package org.sonar.plugins.stash.issue;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.apache.commons.lang3.StringUtils;
@@ -76,6 +77,28 @@ public class MarkdownPrinterTest {
     assertTrue(StringUtils.equals(issueReportMarkdown, reportString));
   }
   
+  @Test
+  public void testPrintReportMarkdownWithOffDiffIssues() {
+    SonarQubeIssuesReport report = new SonarQubeIssuesReport();
+    report.addOffDiff(new SonarQubeIssue("key1", "BLOCKER", "messageBlocker", "RuleBlocker", "pathBlocker", 1));
+    report.countOffDiff("BLOCKER", "RuleBlocker");
+    
+    String issueReportMarkdown = MarkdownPrinter.printReportMarkdown(report, "sonarqube/URL", 100);
+    String reportString = "## SonarQube analysis Overview\n"
+        + "| Total New Issues | 2 |\n"
+        + "|-----------------|------|\n"
+        + "| BLOCKER | 2 |\n"
+        + "| CRITICAL | 0 |\n"
+        + "| MAJOR | 0 |\n"
+        + "| MINOR | 0 |\n"
+        + "| INFO | 0 |\n\n\n"
+        + "| Issues list |\n"
+        + "|------------|\n"
+        + "| *BLOCKER* - messageBlocker [[RuleBlocker](sonarqube/URL/coding_rules#rule_key=RuleBlocker)] |\n";
+  
+    assertEquals(issueReportMarkdown, reportString);
+  }
+  
   @Test
   public void testPrintReportMarkdownWithIssueLimitation() {
     String sonarQubeURL = "sonarqube/URL";
@@ -100,6 +123,21 @@ public class MarkdownPrinterTest {
     assertTrue(StringUtils.equals(issueReportMarkdown, reportString));
   }
   
+  @Test
+  public void testPrintReportMarkdownWithIssueMarkdowns() throws Exception {
+    String sonarQubeURL = "sonarqube/URL";
+    int issueThreshold = 100;
+    IssueMarkdownCache issueMarkdowns = new IssueMarkdownCache(sonarQubeURL);
+    
+    // markdown of the issues already printed is reused
+    issueMarkdowns.get(issueReport.getIssues().get(0));
+    
+    String issueReportMarkdown = MarkdownPrinter.printReportMarkdown(issueReport, issueMarkdowns, issueThreshold);
+    
+    assertEquals(issueReportMarkdown, MarkdownPrinter.printReportMarkdown(issueReport, sonarQubeURL, issueThreshold));
+    assertEquals(issueMarkdowns.size(), 3);
+  }
+  
   @Test
   public void testPrintEmptyReportMarkdown() {
     String sonarQubeURL = "sonarqube/URL";
@@ -0,0 +1,109 @@
+package org.sonar.plugins.stash.issue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SonarQubeIssuesReportTest {
+
+  SonarQubeIssue issue1;
+  SonarQubeIssue issue2;
+  SonarQubeIssue issue3;
+  SonarQubeIssue issue4;
+
+  SonarQubeIssuesReport report = new SonarQubeIssuesReport();
+
+  @Before
+  public void setUp() {
+    issue1 = new SonarQubeIssue("key1", "MAJOR", "message1", "rule1", "path1", 1);
+    issue2 = new SonarQubeIssue("key2", "MAJOR", "message2", "rule2", "path2", 2);
+    issue3 = new SonarQubeIssue("key3", "MAJOR", "message3", "rule1", "path3", 3);
+    issue4 = new SonarQubeIssue("key4", "BLOCKER", "message4", "rule4", "path4", 4);
+
+    report.add(issue1);
+    report.add(issue2);
+    report.add(issue3);
+    report.add(issue4);
+  }
+
+  @Test
+  public void testCountIssues() {
+    assertEquals(report.countIssues(), 4);
+    assertEquals(report.countIssues("MAJOR"), 3);
+    assertEquals(report.countIssues("BLOCKER"), 1);
+    assertEquals(report.countIssues("INFO"), 0);
+  }
+
+  @Test
+  public void testCountIssuesByRule() {
+    assertEquals(report.countIssues("MAJOR", "rule1"), 2);
+    assertEquals(report.countIssues("MAJOR", "rule2"), 1);
+    assertEquals(report.countIssues("MAJOR", "rule4"), 0);
+    assertEquals(report.countIssues("INFO", "rule1"), 0);
+  }
+
+  @Test
+  public void testAddOffDiff() {
+    SonarQubeIssue issue5 = new SonarQubeIssue("key5", "MINOR", "message5", "rule5", "path5", 5);
+    SonarQubeIssue issue6 = new SonarQubeIssue("key6", "MAJOR", "message6", "rule1", "path6", 6);
+    
+    report.addOffDiff(issue5);
+    report.addOffDiff(issue6);
+    assertTrue(report.countOffDiff("MINOR", "rule5"));
+    
+    assertEquals(report.countIssues(), 7);
+    assertEquals(report.countOffDiffIssues(), 3);
+    assertEquals(report.countIssues("MINOR", "rule5"), 2);
+    assertEquals(report.countIssues("MAJOR", "rule1"), 3);
+    
+    // off diff issues are not commented, but stand for their rule in the overview when it has no other issue
+    assertEquals(report.getIssues().size(), 4);
+    assertSame(report.getUniqueRulesBySeverity("MINOR").get("rule5"), issue5);
+    assertSame(report.getUniqueRulesBySeverity("MAJOR").get("rule1"), issue1);
+  }
+  
+  @Test
+  public void testCountsIncludeOffDiffIssuesButListsDoNot() {
+    report.addOffDiff(new SonarQubeIssue("key5", "MAJOR", "message5", "rule5", "path5", 5));
+    report.countOffDiff("MAJOR", "rule5");
+    
+    // counts are the ones of the overview, lists are the issues to comment
+    assertEquals(report.countIssues("MAJOR"), 5);
+    assertEquals(report.getIssuesBySeverity("MAJOR").size(), 3);
+    assertEquals(report.countIssues(), 6);
+    assertEquals(report.getIssues().size(), report.countIssues() - report.countOffDiffIssues());
+  }
+  
+  @Test
+  public void testCountOffDiffOfUnknownRule() {
+    assertFalse(report.countOffDiff("MINOR", "rule5"));
+    
+    assertEquals(report.countIssues(), 4);
+    assertEquals(report.countOffDiffIssues(), 0);
+    assertEquals(report.countIssues("MINOR"), 0);
+  }
+  
+  @Test
+  public void testGetIssuesBySeverity() {
+    assertEquals(report.getIssuesBySeverity("MAJOR").size(), 3);
+    assertSame(report.getIssuesBySeverity("BLOCKER").get(0), issue4);
+    assertTrue(report.getIssuesBySeverity("INFO").isEmpty());
+  }
+
+  @Test
+  public void testGetUniqueRulesBySeverity() {
+    Map<String, SonarQubeIssue> rules = report.getUniqueRulesBySeverity("MAJOR");
+    assertEquals(new ArrayList<>(rules.keySet()).toString(), "[rule1, rule2]");
+    assertSame(rules.get("rule1"), issue1);
+    assertSame(rules.get("rule2"), issue2);
+
+    assertTrue(report.getUniqueRulesBySeverity("INFO").isEmpty());
+  }
+}
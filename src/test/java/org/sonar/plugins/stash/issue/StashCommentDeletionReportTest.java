@@ -0,0 +1,31 @@
+package org.sonar.plugins.stash.issue;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Test;
+
+public class StashCommentDeletionReportTest {
+
+  @Test
+  public void testAdd() {
+    StashComment comment1 = mock(StashComment.class);
+    StashComment comment2 = mock(StashComment.class);
+    StashComment comment3 = mock(StashComment.class);
+    
+    StashCommentDeletionReport report = new StashCommentDeletionReport();
+    assertEquals(report.countDeleted(), 0);
+    assertEquals(report.countFailed(), 0);
+    
+    report.addDeleted(comment1);
+    report.addFailed(comment2, "message2");
+    report.addDeleted(comment3);
+    
+    assertEquals(report.countDeleted(), 2);
+    assertEquals(report.getDeletedComments().get(0), comment1);
+    assertEquals(report.getDeletedComments().get(1), comment3);
+    
+    assertEquals(report.countFailed(), 1);
+    assertEquals(report.getFailedComments().get(comment2), "message2");
+  }
+}
@@ -2,6 +2,8 @@ package org.sonar.plugins.stash.issue;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -47,6 +49,17 @@ public class StashCommentReportTest {
     assertFalse(report.contains("message3", "path2", 2));
   }
 
+  @Test
+  public void testGetComment() {
+    StashCommentReport report = new StashCommentReport();
+    report.add(comment1);
+    report.add(comment2);
+    
+    assertSame(report.getComment("message1", "path1", 1), comment1);
+    assertSame(report.getComment("message2", "path2", 2), comment2);
+    assertNull(report.getComment("message1", "path2", 2));
+  }
+
   @Test
   public void testNotContains() {
     StashCommentReport report = new StashCommentReport();
@@ -149,6 +162,27 @@ public class StashCommentReportTest {
     assertTrue(report.contains("message2", "path2", 10));
   }
   
+  @Test
+  public void applyDiffReportWithCONTEXTUpdatesCommentLine(){
+    StashDiff diff = mock(StashDiff.class);
+    when(diff.isTypeOfContext()).thenReturn(true);
+    when(diff.getDestination()).thenReturn((long) 10);
+    
+    StashDiffReport diffReport = mock(StashDiffReport.class);
+    when(diffReport.getDiffByComment(987654)).thenReturn(diff);
+    
+    StashUser stashUser = mock(StashUser.class);
+    comment2 = new StashComment(987654, "message2", "path2", (long) 2, stashUser, (long) 0);
+    
+    StashCommentReport report = new StashCommentReport();
+    report.add(comment2);
+    assertTrue(report.contains("message2", "path2", 2));
+    
+    report.applyDiffReport(diffReport);
+    assertFalse(report.contains("message2", "path2", 2));
+    assertTrue(report.contains("message2", "path2", 10));
+  }
+  
   @Test
   public void applyDiffReportWithADDED(){
     StashDiff diff = mock(StashDiff.class);
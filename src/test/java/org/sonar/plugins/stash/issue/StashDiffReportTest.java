@@ -1,6 +1,8 @@
 package org.sonar.plugins.stash.issue;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -90,6 +92,15 @@ public class StashDiffReportTest {
     assertEquals(report1.getType("path/to/diff", 0), null);
   }
   
+  @Test
+  public void testContains(){
+    assertTrue(report1.contains("path/to/diff1", 20));
+    assertTrue(report1.contains("path/to/diff1", 0));
+    
+    assertFalse(report1.contains("path/to/diff1", 30));
+    assertFalse(report1.contains("path/to/diff4", 0));
+  }
+  
   @Test
   public void testGetLine(){
     assertEquals(report1.getLine("path/to/diff1", 20), 10);
@@ -99,6 +110,81 @@ public class StashDiffReportTest {
     assertEquals(report1.getLine("path/to/diff1", 50), 0);
   }
   
+  @Test
+  public void testGetTypeAndLineWithSeveralDiffsOnSameFile(){
+    StashDiffReport report = new StashDiffReport();
+    report.add(new StashDiff(StashPlugin.ADDED_ISSUE_TYPE, "path/to/diff", (long) 5, (long) 10));
+    report.add(new StashDiff(StashPlugin.CONTEXT_ISSUE_TYPE, "path/to/diff", (long) 6, (long) 11));
+    report.add(new StashDiff(StashPlugin.CONTEXT_ISSUE_TYPE, "path/to/diff", (long) 7, (long) 10));
+    
+    assertEquals(report.getType("path/to/diff", 10), StashPlugin.ADDED_ISSUE_TYPE);
+    assertEquals(report.getLine("path/to/diff", 10), 10);
+    assertEquals(report.getType("path/to/diff", 11), StashPlugin.CONTEXT_ISSUE_TYPE);
+    assertEquals(report.getLine("path/to/diff", 11), 6);
+    assertEquals(report.getType("path/to/diff", 12), null);
+  }
+  
+  @Test
+  public void testGetTypeAndLineWithManyDiffsOnSameFile(){
+    StashDiffReport report = new StashDiffReport();
+    for (long line = 1; line <= 1000; line++) {
+      String type = (line % 2 == 0) ? StashPlugin.ADDED_ISSUE_TYPE : StashPlugin.CONTEXT_ISSUE_TYPE;
+      report.add(new StashDiff(type, "path/to/diff", line + 5, line));
+    }
+    
+    assertEquals(report.getDiffs().size(), 1000);
+    assertEquals(report.getType("path/to/diff", 1), StashPlugin.CONTEXT_ISSUE_TYPE);
+    assertEquals(report.getLine("path/to/diff", 1), 6);
+    assertEquals(report.getType("path/to/diff", 1000), StashPlugin.ADDED_ISSUE_TYPE);
+    assertEquals(report.getLine("path/to/diff", 1000), 1000);
+    assertEquals(report.getType("path/to/diff", 1001), null);
+  }
+  
+  @Test
+  public void testGetTypeAndLineWithFileComment(){
+    StashComment comment = mock(StashComment.class);
+    when(comment.getId()).thenReturn((long) 12345);
+    
+    // file comments are attached to line 0, after the other lines of the file
+    StashDiff fileDiff = new StashDiff(StashPlugin.CONTEXT_ISSUE_TYPE, "path/to/diff", 0, 0);
+    fileDiff.addComment(comment);
+    
+    StashDiffReport report = new StashDiffReport();
+    report.add(new StashDiff(StashPlugin.ADDED_ISSUE_TYPE, "path/to/diff", 5, 10));
+    report.add(new StashDiff(StashPlugin.CONTEXT_ISSUE_TYPE, "path/to/diff", 6, 11));
+    report.add(fileDiff);
+    report.add(new StashDiff(StashPlugin.CONTEXT_ISSUE_TYPE, "path/to/diff", 7, 10));
+    
+    assertEquals(report.getType("path/to/diff", 10), StashPlugin.ADDED_ISSUE_TYPE);
+    assertEquals(report.getLine("path/to/diff", 10), 10);
+    assertEquals(report.getType("path/to/diff", 11), StashPlugin.CONTEXT_ISSUE_TYPE);
+    assertEquals(report.getLine("path/to/diff", 11), 6);
+    assertEquals(report.getType("path/to/diff", 12), null);
+    assertEquals(report.getDiffByComment(12345), fileDiff);
+  }
+  
+  @Test
+  public void testGetDiffsAreViews(){
+    StashDiff diff = report1.getDiffs().get(0);
+    assertEquals(diff, diff1);
+    assertEquals(diff.getComments().size(), 1);
+    
+    // changing a view does not change the report
+    diff.addComment(mock(StashComment.class));
+    assertEquals(report1.getDiffs().get(0).getComments().size(), 1);
+    assertEquals(report1.getDiffs().get(2).getComments().size(), 0);
+  }
+  
+  @Test
+  public void testGetTypeAndLineFromAddedReport(){
+    StashDiffReport report = new StashDiffReport();
+    report.add(report1);
+    
+    assertEquals(report.getType("path/to/diff1", 20), StashPlugin.CONTEXT_ISSUE_TYPE);
+    assertEquals(report.getType("path/to/diff2", 30), StashPlugin.ADDED_ISSUE_TYPE);
+    assertEquals(report.getLine("path/to/diff3", 40), 30);
+  }
+  
   @Test
   public void testGetDiffByComment(){
     StashDiff diff1 = report1.getDiffByComment(12345);
@@ -111,6 +197,29 @@ public class StashDiffReportTest {
     assertEquals(diff2, null);
   }
   
+  @Test
+  public void testGetDiffByCommentFromAddedReport(){
+    StashDiffReport report = new StashDiffReport();
+    report.add(report1);
+    
+    assertEquals(report.getDiffByComment(12345), diff1);
+    assertEquals(report.getDiffByComment(54321), diff2);
+    assertEquals(report.getDiffByComment(123456), null);
+  }
+  
+  @Test
+  public void testGetDiffByCommentWithCommentOnSeveralDiffs(){
+    StashComment comment = mock(StashComment.class);
+    when(comment.getId()).thenReturn((long) 12345);
+    diff3.addComment(comment);
+    
+    StashDiffReport report = new StashDiffReport();
+    report.add(diff3);
+    report.add(diff1);
+    
+    assertEquals(report.getDiffByComment(12345), diff3);
+  }
+  
   @Test
   public void testGetComments() {
     List<StashComment> comments = report1.getComments();
@@ -1,5 +1,6 @@
 package org.sonar.plugins.stash.issue;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -44,5 +45,19 @@ public class StashDiffTest {
     assertFalse(diff1.containsComment(54321));
     assertFalse(diff3.containsComment(12345));
   }
+  
+  @Test
+  public void testGetComments(){
+    assertEquals(diff1.getComments().size(), 1);
+    assertTrue(diff3.getComments().isEmpty());
+  }
+  
+  @Test
+  public void testEquals(){
+    assertEquals(new StashDiff(StashPlugin.CONTEXT_ISSUE_TYPE, "path/to/diff1", (long) 10, (long) 20), diff1);
+    assertEquals(new StashDiff(StashPlugin.CONTEXT_ISSUE_TYPE, "path/to/diff1", (long) 10, (long) 20).hashCode(), diff1.hashCode());
+    assertFalse(diff1.equals(new StashDiff(StashPlugin.ADDED_ISSUE_TYPE, "path/to/diff1", (long) 10, (long) 20)));
+    assertFalse(diff1.equals(diff3));
+  }
 
 }
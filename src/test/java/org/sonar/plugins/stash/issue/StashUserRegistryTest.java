@@ -0,0 +1,37 @@
+package org.sonar.plugins.stash.issue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class StashUserRegistryTest {
+
+  @Test
+  public void testRegister() {
+    StashUserRegistry users = new StashUserRegistry();
+    StashUser user = users.register(1, "SonarQube", "sonarqube", "sq@email.com");
+
+    assertEquals(user.getId(), 1);
+    assertEquals(user.getName(), "SonarQube");
+    assertEquals(user.getSlug(), "sonarqube");
+    assertEquals(user.getEmail(), "sq@email.com");
+
+    // the first registered user of an id is the canonical one
+    assertSame(users.register(1, "SonarQube", "sonarqube", "sq@email.com"), user);
+    assertEquals(users.size(), 1);
+  }
+
+  @Test
+  public void testGetUser() {
+    StashUserRegistry users = new StashUserRegistry();
+    StashUser user1 = users.register(1, "SonarQube", "sonarqube", "sq@email.com");
+    StashUser user2 = users.register(2, "Reviewer", "reviewer", "reviewer@email.com");
+
+    assertSame(users.getUser("sonarqube"), user1);
+    assertSame(users.getUser("reviewer"), user2);
+    assertNull(users.getUser("unknown"));
+    assertEquals(users.size(), 2);
+  }
+}
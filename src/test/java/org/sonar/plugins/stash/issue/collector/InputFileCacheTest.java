@@ -1,34 +1,67 @@
 package org.sonar.plugins.stash.issue.collector;
 
 import static org.junit.Assert.assertEquals;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
-import org.mockito.Mock;
-import org.sonar.api.batch.fs.InputFile;
+import org.junit.rules.TemporaryFolder;
 import org.sonar.plugins.stash.InputFileCache;
 
 public class InputFileCacheTest {
 
-  @Mock
-  InputFile inputFile1;
-  
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  File projectBaseDir;
+
   @Before
-  public void setUp(){
-    inputFile1 = mock(InputFile.class); 
-    when(inputFile1.relativePath()).thenReturn("path1");
+  public void setUp() throws IOException {
+    projectBaseDir = temporaryFolder.getRoot();
+    createFile("src/main/java/Path1.java");
+    createFile("module1/src/path1");
+    createFile("module1/module2/src/path2");
   }
-  
+
+  @Test
+  public void testGetPutModule() {
+    InputFileCache cache = new InputFileCache();
+    cache.putModule("project", projectBaseDir);
+
+    assertEquals(cache.getRelativePath("project:src/main/java/Path1.java", projectBaseDir), "src/main/java/Path1.java");
+    assertEquals(cache.getRelativePath("other:src/main/java/Path1.java", projectBaseDir), null);
+    assertEquals(cache.size(), 1);
+  }
+
   @Test
-  public void testGetPutInputFile() {
-    String componentKey1 = "componentKey1";
-    
+  public void testGetRelativePathOfNonFileComponent() {
     InputFileCache cache = new InputFileCache();
-    cache.putInputFile(componentKey1, inputFile1);
-    
-    assertEquals(inputFile1, cache.getInputFile("componentKey1"));
-    assertEquals(null, cache.getInputFile("componentKey2"));
+    cache.putModule("project", projectBaseDir);
+
+    assertEquals(cache.getRelativePath("project", projectBaseDir), null);
+    assertEquals(cache.getRelativePath("project:", projectBaseDir), null);
+    assertEquals(cache.getRelativePath("project:src/main/java", projectBaseDir), null);
+    assertEquals(cache.getRelativePath("project:src/main/java/Unknown.java", projectBaseDir), null);
+  }
+
+  @Test
+  public void testGetRelativePathOfMultiModuleProject() {
+    InputFileCache cache = new InputFileCache();
+    cache.putModule("project", projectBaseDir);
+    cache.putModule("project:module1", new File(projectBaseDir, "module1"));
+    cache.putModule("project:module1:module2", new File(projectBaseDir, "module1/module2"));
+
+    assertEquals(cache.getRelativePath("project:module1:src/path1", projectBaseDir), "module1/src/path1");
+    assertEquals(cache.getRelativePath("project:module1:module2:src/path2", projectBaseDir), "module1/module2/src/path2");
+    assertEquals(cache.getRelativePath("project:module1:module2:src/path1", projectBaseDir), null);
+  }
+
+  private void createFile(String relativePath) throws IOException {
+    File file = new File(projectBaseDir, relativePath);
+    file.getParentFile().mkdirs();
+    file.createNewFile();
   }
 }
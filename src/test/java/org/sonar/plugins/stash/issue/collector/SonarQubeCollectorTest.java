@@ -1,7 +1,10 @@
 package org.sonar.plugins.stash.issue.collector;
 
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.File;
@@ -11,13 +14,14 @@ import org.apache.commons.lang3.StringUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
-import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.issue.Issue;
 import org.sonar.api.issue.ProjectIssues;
 import org.sonar.api.rule.RuleKey;
 import org.sonar.plugins.stash.InputFileCache;
+import org.sonar.plugins.stash.issue.DiffFilter;
 import org.sonar.plugins.stash.issue.SonarQubeIssue;
 import org.sonar.plugins.stash.issue.SonarQubeIssuesReport;
+import org.sonar.plugins.stash.issue.StringDictionary;
 
 
 public class SonarQubeCollectorTest {
@@ -40,14 +44,8 @@ public class SonarQubeCollectorTest {
   public void setUp(){
     projectBaseDir = new File("baseDir");
     
-    InputFile inputFile1 = mock(InputFile.class); 
-    when(inputFile1.file()).thenReturn(new File("baseDir/project/path1"));
-    
-    InputFile inputFile2 = mock(InputFile.class); 
-    when(inputFile2.file()).thenReturn(new File("baseDir/project/path2"));
-    
-    when(inputFileCache.getInputFile("component1")).thenReturn(inputFile1);
-    when(inputFileCache.getInputFile("component2")).thenReturn(inputFile2);
+    when(inputFileCache.getRelativePath("component1", projectBaseDir)).thenReturn("project/path1");
+    when(inputFileCache.getRelativePath("component2", projectBaseDir)).thenReturn("project/path2");
     
     issue1 = mock(Issue.class);
     when(issue1.line()).thenReturn(1);
@@ -145,7 +143,7 @@ public class SonarQubeCollectorTest {
   
   @Test
   public void testExtractIssueReportWithOneIssueWithoutInputFile(){
-    when(inputFileCache.getInputFile("component1")).thenReturn(null);
+    when(inputFileCache.getRelativePath("component1", projectBaseDir)).thenReturn(null);
     
     ArrayList<Issue> issues = new ArrayList<Issue>();
     issues.add(issue1);
@@ -162,4 +160,93 @@ public class SonarQubeCollectorTest {
     assertTrue(StringUtils.equals(sqIssue.getPath(), "project/path2"));
     assertTrue(sqIssue.getLine() == 2);
   }
+  
+  @Test
+  public void testExtractIssueReportWithStringDictionary(){
+    when(issue2.message()).thenReturn(new String("message1"));
+    when(issue2.severity()).thenReturn(new String("severity1"));
+    when(issue2.componentKey()).thenReturn("component1");
+    
+    ArrayList<Issue> issues = new ArrayList<Issue>();
+    issues.add(issue1);
+    issues.add(issue2);
+    when(projectIssues.issues()).thenReturn(issues);
+    
+    StringDictionary strings = new StringDictionary();
+    SonarQubeIssuesReport report = SonarQubeCollector.extractIssueReport(projectIssues, inputFileCache, projectBaseDir, strings);
+    assertTrue(report.countIssues() == 2);
+    
+    // issues share their strings
+    SonarQubeIssue sqIssue1 = report.getIssues().get(0);
+    SonarQubeIssue sqIssue2 = report.getIssues().get(1);
+    assertSame(sqIssue2.getMessage(), sqIssue1.getMessage());
+    assertSame(sqIssue2.getSeverity(), sqIssue1.getSeverity());
+    assertSame(sqIssue2.getPath(), sqIssue1.getPath());
+    assertSame(strings.get("project/path1"), sqIssue1.getPath());
+  }
+  
+  @Test
+  public void testExtractIssueReportWithDiffFilter(){
+    Issue issue3 = mock(Issue.class);
+    when(issue3.line()).thenReturn(3);
+    when(issue3.message()).thenReturn("message3");
+    when(issue3.key()).thenReturn("key3");
+    when(issue3.severity()).thenReturn("severity2");
+    when(issue3.componentKey()).thenReturn("component2");
+    when(issue3.isNew()).thenReturn(true);
+    
+    RuleKey rule2 = issue2.ruleKey();
+    when(issue3.ruleKey()).thenReturn(rule2);
+    
+    ArrayList<Issue> issues = new ArrayList<Issue>();
+    issues.add(issue1);
+    issues.add(issue2);
+    issues.add(issue3);
+    when(projectIssues.issues()).thenReturn(issues);
+    
+    // only first issue is on the pull-request diff
+    DiffFilter diffFilter = mock(DiffFilter.class);
+    when(diffFilter.contains("project/path1", 1)).thenReturn(true);
+    
+    SonarQubeIssuesReport report = SonarQubeCollector.extractIssueReport(projectIssues, inputFileCache, projectBaseDir, new StringDictionary(), diffFilter);
+    assertTrue(report.countIssues() == 3);
+    assertTrue(report.countOffDiffIssues() == 2);
+    assertTrue(report.countIssues("severity2", "rule2") == 2);
+    
+    assertTrue(report.getIssues().size() == 1);
+    assertTrue(StringUtils.equals(report.getIssues().get(0).getKey(), "key1"));
+    
+    // first off diff issue of the rule stands for it in the overview, next ones are not built
+    assertTrue(StringUtils.equals(report.getUniqueRulesBySeverity("severity2").get("rule2").getKey(), "key2"));
+    verify(issue3, times(0)).message();
+  }
+  
+  @Test
+  public void testExtractIssueReportResolvesPathOncePerFile(){
+    when(issue2.componentKey()).thenReturn("component1");
+    
+    RuleKey rule3 = mock(RuleKey.class);
+    when(rule3.toString()).thenReturn("rule3");
+    
+    Issue issue3 = mock(Issue.class);
+    when(issue3.key()).thenReturn("key3");
+    when(issue3.componentKey()).thenReturn("component3");
+    when(issue3.ruleKey()).thenReturn(rule3);
+    when(issue3.isNew()).thenReturn(true);
+    
+    ArrayList<Issue> issues = new ArrayList<Issue>();
+    issues.add(issue1);
+    issues.add(issue2);
+    issues.add(issue3);
+    issues.add(issue3);
+    when(projectIssues.issues()).thenReturn(issues);
+    
+    SonarQubeIssuesReport report = SonarQubeCollector.extractIssueReport(projectIssues, inputFileCache, projectBaseDir);
+    assertTrue(report.countIssues() == 2);
+    assertTrue(StringUtils.equals(report.getIssues().get(1).getPath(), "project/path1"));
+    
+    // files without path are not resolved again either
+    verify(inputFileCache, times(1)).getRelativePath("component1", projectBaseDir);
+    verify(inputFileCache, times(1)).getRelativePath("component3", projectBaseDir);
+  }
 }
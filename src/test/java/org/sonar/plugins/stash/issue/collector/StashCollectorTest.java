@@ -2,15 +2,22 @@ package org.sonar.plugins.stash.issue.collector;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.StringReader;
+
 import org.junit.Test;
+import org.sonar.plugins.stash.issue.StashChangePage;
 import org.sonar.plugins.stash.issue.StashComment;
+import org.sonar.plugins.stash.issue.StashCommentPage;
 import org.sonar.plugins.stash.issue.StashCommentReport;
 import org.sonar.plugins.stash.issue.StashDiff;
 import org.sonar.plugins.stash.issue.StashDiffReport;
 import org.sonar.plugins.stash.issue.StashPullRequest;
 import org.sonar.plugins.stash.issue.StashUser;
+import org.sonar.plugins.stash.issue.StashUserRegistry;
+import org.sonar.plugins.stash.issue.StringDictionary;
 
 public class StashCollectorTest {
 
@@ -33,6 +40,21 @@ public class StashCollectorTest {
     assertEquals(comment.getLine(), 5);
   }
   
+  @Test
+  public void testExtractSingleComment() throws Exception {
+    String commentString = "{\"id\":1234, \"text\":\"message\", \"anchor\": {\"path\":\"path\", \"line\":5},"
+        + "\"author\": {\"id\":1, \"name\":\"SonarQube\", \"slug\":\"sonarqube\", \"email\":\"sq@email.com\"}, \"version\":3}";
+    
+    StashComment comment = StashCollector.extractComment(commentString);
+    
+    assertEquals(comment.getId(), 1234);
+    assertEquals(comment.getMessage(), "message");
+    assertEquals(comment.getPath(), "path");
+    assertEquals(comment.getVersion(), 3);
+    assertEquals(comment.getAuthor().getId(), STASH_USER_ID);
+    assertEquals(comment.getLine(), 5);
+  }
+  
   @Test
   public void testExtractCommentList() throws Exception {
     String commentString = "{\"values\": ["
@@ -60,6 +82,47 @@ public class StashCollectorTest {
     assertEquals(comment2.getVersion(), 2);
     assertEquals(comment2.getAuthor().getId(), STASH_USER_ID);
     assertEquals(comment2.getLine(), 2);
+    
+    // comments of the same author share the same user
+    assertSame(comment2.getAuthor(), comment1.getAuthor());
+  }
+  
+  @Test
+  public void testExtractCommentsWithStringDictionary() throws Exception {
+    StringDictionary strings = new StringDictionary();
+    String path = strings.get("stash-plugin/Test.java");
+    
+    StashDiffReport report = StashCollector.extractDiffs(new StringReader(DiffReportSample.baseReport), new StashUserRegistry(), strings);
+    assertSame(report.getDiffs().get(0).getPath(), path);
+    assertSame(report.getComments().get(0).getPath(), path);
+    
+    String commentString = "{\"values\": [{\"id\":1234, \"text\":\"message\", \"anchor\": {\"path\":\"stash-plugin/Test.java\", \"line\":5},"
+        + "\"author\": {\"id\":1, \"name\":\"SonarQube\", \"slug\":\"sonarqube\", \"email\":\"sq@email.com\"}, \"version\":0}]}";
+    StashCommentPage page = StashCollector.extractCommentPage(commentString, new StashUserRegistry(), strings);
+    StashComment comment = page.getComments().getComments().get(0);
+    assertSame(comment.getPath(), path);
+    assertSame(comment.getMessage(), strings.get("message"));
+  }
+  
+  @Test
+  public void testExtractCommentsWithUserRegistry() throws Exception {
+    StashUserRegistry users = new StashUserRegistry();
+    StashUser user = StashCollector.extractUser("{\"name\":\"SonarQube\", \"email\":\"sq@email.com\", \"id\":1, \"slug\":\"sonarqube\"}", users);
+    
+    String commentString = "{\"values\": [{\"id\":1234, \"text\":\"message\", \"anchor\": {\"path\":\"path\", \"line\":5},"
+        + "\"author\": {\"id\":1, \"name\":\"SonarQube\", \"slug\":\"sonarqube\", \"email\":\"sq@email.com\"}, \"version\":0}]}";
+    StashCommentPage page = StashCollector.extractCommentPage(commentString, users, new StringDictionary());
+    assertSame(page.getComments().getComments().get(0).getAuthor(), user);
+    
+    StashDiffReport report = StashCollector.extractDiffs(new StringReader(DiffReportSample.baseReport), users, new StringDictionary());
+    assertFalse(report.getComments().isEmpty());
+    for (StashComment comment : report.getComments()) {
+      StashUser author = comment.getAuthor();
+      assertSame(users.register(author.getId(), author.getName(), author.getSlug(), author.getEmail()), author);
+    }
+    
+    assertSame(users.getUser("sonarqube"), user);
+    assertEquals(users.size(), 3);
   }
   
   @Test
@@ -91,6 +154,58 @@ public class StashCollectorTest {
     assertEquals(StashCollector.getNextPageStart(jsonBody), 0);
   }
   
+  @Test
+  public void testExtractCommentPage() throws Exception {
+    String jsonBody = "{\"values\": ["
+        + "{\"id\":1234, \"text\":\"message\", \"anchor\": {\"path\":\"path\", \"line\":5},"
+          + "\"author\": {\"id\":1, \"name\":\"SonarQube\", \"slug\":\"sonarqube\", \"email\":\"sq@email.com\"}, \"version\":0}],"
+        + "\"isLastPage\": false, \"nextPageStart\": 25}";
+    StashCommentPage page = StashCollector.extractCommentPage(jsonBody);
+
+    assertFalse(page.isLastPage());
+    assertEquals(page.getNextPageStart(), 25);
+    assertEquals(page.getComments().size(), 1);
+    
+    StashComment comment = page.getComments().getComments().get(0);
+    assertEquals(comment.getId(), 1234);
+    assertEquals(comment.getAuthor().getId(), STASH_USER_ID);
+    assertEquals(comment.getAuthor().getSlug(), "sonarqube");
+    assertEquals(comment.getLine(), 5);
+  }
+  
+  @Test
+  public void testExtractLastCommentPage() throws Exception {
+    String jsonBody = "{\"values\": []}";
+    StashCommentPage page = StashCollector.extractCommentPage(jsonBody);
+
+    assertTrue(page.isLastPage());
+    assertEquals(page.getNextPageStart(), 0);
+    assertEquals(page.getComments().size(), 0);
+  }
+  
+  @Test
+  public void testExtractChangePage() throws Exception {
+    String jsonBody = "{\"values\": ["
+        + "{\"path\": {\"toString\": \"src/Added.java\"}, \"type\": \"ADD\"},"
+        + "{\"path\": {\"toString\": \"src/Modified.java\"}, \"type\": \"MODIFY\"},"
+        + "{\"path\": {\"toString\": \"src/Deleted.java\"}, \"type\": \"DELETE\"}],"
+        + "\"isLastPage\": false, \"nextPageStart\": 3}";
+    StashChangePage page = StashCollector.extractChangePage(jsonBody);
+
+    assertFalse(page.isLastPage());
+    assertEquals(page.getNextPageStart(), 3);
+    assertEquals(page.getPaths().toString(), "[src/Added.java, src/Modified.java]");
+  }
+  
+  @Test
+  public void testExtractLastChangePage() throws Exception {
+    String jsonBody = "{\"values\": []}";
+    StashChangePage page = StashCollector.extractChangePage(jsonBody);
+
+    assertTrue(page.isLastPage());
+    assertTrue(page.getPaths().isEmpty());
+  }
+  
   @Test
   public void testExtractDiffsWithBaseReport() throws Exception {
     StashDiffReport report = StashCollector.extractDiffs(DiffReportSample.baseReport);
@@ -368,6 +483,35 @@ public class StashCollectorTest {
   }
   
   @Test
+  public void testExtractDiffsWithCommentsBeforeHunks() throws Exception {
+    String jsonBody = "{\"diffs\": [{"
+        + "\"lineComments\": [{\"id\": 12345, \"version\": 1, \"text\": \"Test comment\","
+          + "\"author\": {\"id\": 12345, \"name\": \"SonarQube\", \"slug\": \"sonarqube\", \"email\": \"sq@email.com\"},"
+          + "\"comments\": [{\"id\": 54321, \"version\": 1, \"text\": \"Reply\","
+            + "\"author\": {\"id\": 54321, \"name\": \"SonarQube2\", \"slug\": \"sonarqube2\", \"email\": \"sq2@email.com\"}}]}],"
+        + "\"hunks\": [{\"segments\": [{\"lines\": [{\"source\": 10, \"destination\": 20, \"commentIds\": [12345]}], \"type\": \"CONTEXT\"},"
+          + "{\"lines\": [{\"source\": 20, \"destination\": 30}], \"type\": \"REMOVED\"}]}],"
+        + "\"destination\": {\"toString\": \"stash-plugin/Test.java\"}}]}";
+    
+    StashDiffReport report = StashCollector.extractDiffs(new StringReader(jsonBody));
+    assertEquals(report.getDiffs().size(), 1);
+    
+    StashDiff diff = report.getDiffs().get(0);
+    assertEquals(diff.getSource(), (long) 10);
+    assertEquals(diff.getDestination(), (long) 20);
+    assertEquals(diff.getPath(), "stash-plugin/Test.java");
+    assertEquals(diff.getType(), "CONTEXT");
+    assertEquals(diff.getComments().size(), 1);
+    
+    StashComment comment = diff.getComments().get(0);
+    assertEquals(comment.getId(), 12345);
+    assertEquals(comment.getMessage(), "Test comment");
+    assertEquals(comment.getLine(), 20);
+    assertEquals(comment.getAuthor().getSlug(), "sonarqube");
+    assertEquals(report.getDiffByComment(12345), diff);
+  }
+  
+  @Test
   public void testExtractPullRequest() throws Exception {
     String project = "project";
     String repository = "repository";
@@ -0,0 +1,172 @@
+package org.sonar.plugins.stash.issue.collector;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.sonar.api.rule.Severity;
+import org.sonar.plugins.stash.StashPlugin;
+import org.sonar.plugins.stash.issue.MarkdownPrinter;
+import org.sonar.plugins.stash.issue.SonarQubeIssue;
+import org.sonar.plugins.stash.issue.SonarQubeIssuesReport;
+import org.sonar.plugins.stash.issue.StashComment;
+import org.sonar.plugins.stash.issue.StashCommentReport;
+import org.sonar.plugins.stash.issue.StashUser;
+
+/**
+ * Synthetic pull-request, with the same JSON layout as DiffReportSample but scaled to a given number of diff lines.
+ *
+ * Each file holds LINES_PER_FILE lines, split into segments of SEGMENT_SIZE lines cycling through CONTEXT, ADDED and
+ * REMOVED types. One line out of COMMENT_FREQUENCY holds a comment of the SonarQube user.
+ */
+public final class SyntheticPullRequest {
+
+  public static final String SONARQUBE_URL = "http://sonar/url";
+
+  static final int LINES_PER_FILE = 100;
+  static final int SEGMENT_SIZE = 10;
+  static final int COMMENT_FREQUENCY = 20;
+
+  private static final String[] SEGMENT_TYPES = {StashPlugin.CONTEXT_ISSUE_TYPE, StashPlugin.ADDED_ISSUE_TYPE, StashPlugin.REMOVED_ISSUE_TYPE};
+  private static final String[] SEVERITIES = {Severity.BLOCKER, Severity.CRITICAL, Severity.MAJOR, Severity.MINOR, Severity.INFO};
+  private static final int RULE_COUNT = 200;
+
+  private static final StashUser SONARQUBE_USER = new StashUser(1, "SonarQube", "sonarqube", "sq@email.com");
+
+  private SyntheticPullRequest() {
+    // NOTHING TO DO
+    // Pure static class
+  }
+
+  public static String path(int file) {
+    return "stash-plugin/src/main/java/org/sonar/File" + file + ".java";
+  }
+
+  /**
+   * JSON diff view of a pull-request holding the given number of diff lines.
+   */
+  public static String diffJson(int diffLines) {
+    JSONArray diffs = new JSONArray();
+
+    long commentId = 0;
+    for (int file = 0; file * LINES_PER_FILE < diffLines; file++) {
+      JSONArray segments = new JSONArray();
+      JSONArray lineComments = new JSONArray();
+
+      int fileLines = Math.min(LINES_PER_FILE, diffLines - file * LINES_PER_FILE);
+      for (int start = 0; start < fileLines; start += SEGMENT_SIZE) {
+        JSONArray lines = new JSONArray();
+
+        for (int line = start; line < Math.min(start + SEGMENT_SIZE, fileLines); line++) {
+          JSONObject jsonLine = new JSONObject();
+          jsonLine.put("source", (long) line + 1);
+          jsonLine.put("destination", (long) line + 1);
+          jsonLine.put("line", "System.out.println(test);");
+
+          if (line % COMMENT_FREQUENCY == 0) {
+            commentId++;
+            JSONArray commentIds = new JSONArray();
+            commentIds.add(commentId);
+            jsonLine.put("commentIds", commentIds);
+
+            lineComments.add(commentJson(commentId, "Comment " + commentId, path(file), line + 1L));
+          }
+          lines.add(jsonLine);
+        }
+
+        JSONObject segment = new JSONObject();
+        segment.put("type", SEGMENT_TYPES[(start / SEGMENT_SIZE) % SEGMENT_TYPES.length]);
+        segment.put("lines", lines);
+        segments.add(segment);
+      }
+
+      JSONObject hunk = new JSONObject();
+      hunk.put("segments", segments);
+      JSONArray hunks = new JSONArray();
+      hunks.add(hunk);
+
+      JSONObject destination = new JSONObject();
+      destination.put("toString", path(file));
+
+      JSONObject diff = new JSONObject();
+      diff.put("source", destination);
+      diff.put("destination", destination);
+      diff.put("hunks", hunks);
+      diff.put("lineComments", lineComments);
+      diffs.add(diff);
+    }
+
+    JSONObject result = new JSONObject();
+    result.put("diffs", diffs);
+    return result.toJSONString();
+  }
+
+  /**
+   * JSON comment page holding one comment per issue, as returned for the files of the pull-request.
+   */
+  public static String commentsJson(SonarQubeIssuesReport issueReport) {
+    JSONArray values = new JSONArray();
+
+    long commentId = 0;
+    for (SonarQubeIssue issue : issueReport.getIssues()) {
+      commentId++;
+      values.add(commentJson(commentId, MarkdownPrinter.printIssueMarkdown(issue, SONARQUBE_URL), issue.getPath(), issue.getLine()));
+    }
+
+    JSONObject result = new JSONObject();
+    result.put("values", values);
+    result.put("isLastPage", true);
+    return result.toJSONString();
+  }
+
+  /**
+   * Comments already pushed for each issue of the report.
+   */
+  public static StashCommentReport commentReport(SonarQubeIssuesReport issueReport) {
+    StashCommentReport result = new StashCommentReport();
+
+    long commentId = 0;
+    for (SonarQubeIssue issue : issueReport.getIssues()) {
+      commentId++;
+      result.add(new StashComment(commentId, MarkdownPrinter.printIssueMarkdown(issue, SONARQUBE_URL), issue.getPath(), issue.getLine(),
+          SONARQUBE_USER, 0));
+    }
+
+    return result;
+  }
+
+  /**
+   * Issues spread over the files of a pull-request holding the given number of diff lines.
+   */
+  public static SonarQubeIssuesReport issueReport(int issues, int diffLines) {
+    SonarQubeIssuesReport result = new SonarQubeIssuesReport();
+
+    for (int i = 0; i < issues; i++) {
+      int diffLine = (int) ((i * 7919L) % diffLines);
+      String rule = "squid:S" + (i % RULE_COUNT);
+
+      result.add(new SonarQubeIssue("key" + i, SEVERITIES[i % SEVERITIES.length], "Message of rule " + rule, rule,
+          path(diffLine / LINES_PER_FILE), (diffLine % LINES_PER_FILE) + 1L));
+    }
+
+    return result;
+  }
+
+  private static JSONObject commentJson(long id, String text, String path, long line) {
+    JSONObject author = new JSONObject();
+    author.put("id", SONARQUBE_USER.getId());
+    author.put("name", SONARQUBE_USER.getName());
+    author.put("slug", SONARQUBE_USER.getSlug());
+    author.put("email", SONARQUBE_USER.getEmail());
+
+    JSONObject anchor = new JSONObject();
+    anchor.put("path", path);
+    anchor.put("line", line);
+
+    JSONObject result = new JSONObject();
+    result.put("id", id);
+    result.put("text", text);
+    result.put("anchor", anchor);
+    result.put("author", author);
+    result.put("version", 0L);
+    return result;
+  }
+}